@@ -0,0 +1,144 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core;
+
+import static org.lbogdanov.poker.core.Constants.CHAT_MESSAGE_MAX_LENGTH;
+
+import java.util.Date;
+
+import javax.persistence.*;
+
+import com.google.common.base.Objects;
+
+
+/**
+ * Represents a chat message posted to a Planning Poker session.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Entity
+@Table(name = "CHAT_LOG")
+public class ChatEntry extends AbstractEntity {
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "SESSION_ID", nullable = false)
+    private Session session;
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "AUTHOR_ID", nullable = false)
+    private User author;
+    @Column(name = "POSTED", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date posted = new Date();
+    @Column(name = "MESSAGE", length = CHAT_MESSAGE_MAX_LENGTH, nullable = false)
+    private String message = "";
+
+    /**
+     * Returns a session the message was posted to.
+     * 
+     * @return the session
+     */
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Sets a session the message was posted to.
+     * 
+     * @param session the session
+     */
+    public void setSession(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Returns a message author.
+     * 
+     * @return the message author
+     */
+    public User getAuthor() {
+        return author;
+    }
+
+    /**
+     * Sets a message author.
+     * 
+     * @param author the message author
+     */
+    public void setAuthor(User author) {
+        this.author = author;
+    }
+
+    /**
+     * Returns a date when the message was posted.
+     * 
+     * @return the date
+     */
+    public Date getPosted() {
+        return posted;
+    }
+
+    /**
+     * Sets a date when the message was posted.
+     * 
+     * @param posted the date
+     */
+    public void setPosted(Date posted) {
+        this.posted = posted;
+    }
+
+    /**
+     * Returns a message text.
+     * 
+     * @return the message text
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Sets a message text, only the first {@link Constants#CHAT_MESSAGE_MAX_LENGTH} characters are stored.
+     * 
+     * @param message the message text
+     */
+    public void setMessage(String message) {
+        this.message = limitString(message, CHAT_MESSAGE_MAX_LENGTH);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getSession(), getAuthor(), getPosted(), getMessage());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof ChatEntry) {
+            ChatEntry other = (ChatEntry) obj;
+            return Objects.equal(getSession(), other.getSession()) && Objects.equal(getAuthor(), other.getAuthor())
+                && Objects.equal(getPosted(), other.getPosted()) && Objects.equal(getMessage(), other.getMessage());
+        }
+        return false;
+    }
+
+}
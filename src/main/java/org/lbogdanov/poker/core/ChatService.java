@@ -0,0 +1,47 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core;
+
+import java.util.List;
+
+
+/**
+ * A service to keep a chat history of {@link Session}s.
+ * 
+ * @author Leonid Bogdanov
+ */
+public interface ChatService {
+
+    /**
+     * Records a chat message posted by the current user to a session. The message may be stored asynchronously, so
+     * this method doesn't wait for a storage.
+     * 
+     * @param session the session
+     * @param message the message text
+     * @return the recorded message
+     */
+    public ChatEntry post(Session session, String message);
+
+    /**
+     * Returns the most recent chat messages of a session, including the messages which are not stored yet.
+     * 
+     * @param session the session
+     * @param count the max number of messages to return
+     * @return the messages from the oldest to the newest one
+     */
+    public List<ChatEntry> findRecent(Session session, int count);
+
+}
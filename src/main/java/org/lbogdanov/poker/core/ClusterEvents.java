@@ -0,0 +1,58 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core;
+
+
+/**
+ * Exchanges events between nodes of a cluster, e.g. to tell other nodes that their cached data is stale. Events are
+ * delivered at most once to every other node and are never delivered back to the node which has published them.
+ * 
+ * @author Leonid Bogdanov
+ */
+public interface ClusterEvents {
+
+    /**
+     * Receives events published on other nodes.
+     */
+    public interface Listener {
+
+        /**
+         * Is called for every event of a subscribed topic published on another node.
+         * 
+         * @param topic the event topic
+         * @param payload the event payload
+         */
+        public void onEvent(String topic, String payload);
+
+    }
+
+    /**
+     * Publishes an event to all other nodes.
+     * 
+     * @param topic the event topic
+     * @param payload the event payload
+     */
+    public void publish(String topic, String payload);
+
+    /**
+     * Subscribes a listener to events of a topic published on other nodes.
+     * 
+     * @param topic the event topic
+     * @param listener the listener
+     */
+    public void subscribe(String topic, Listener listener);
+
+}
@@ -26,6 +26,9 @@ public final class Constants {
     public static final int LABEL_MAX_LENGTH = 32;
     public static final int SESSION_CODE_DEFAULT_LENGTH = 10;
     public static final int SESSION_CODE_MAX_LENGTH = 32;
+    public static final int SESSION_CODE_POOL_DEFAULT_SIZE = 64;
+    public static final int SESSION_CODE_POOL_DEFAULT_THRESHOLD = 16;
+    public static final int SESSION_CACHE_DEFAULT_SIZE = 1000;
     public static final int SESSION_NAME_MAX_LENGTH = 128;
     public static final int SESSION_DESCRIPTION_MAX_LENGTH = 4096;
     public static final int SESSION_ESTIMATES_MAX_LENGTH = 1024;
@@ -33,10 +36,21 @@ public final class Constants {
     public static final int USER_LAST_NAME_MAX_LENGTH = 128;
     public static final int USER_EMAIL_MAX_LENGTH = 254;
     public static final int USER_EXTERNAL_ID_MAX_LENGTH = 64;
+    public static final int CHAT_MESSAGE_MAX_LENGTH = 4096;
+    public static final int DEFAULT_CHAT_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_CHAT_BATCH_SIZE = 100;
+    public static final int DEFAULT_CHAT_HISTORY_SIZE = 50;
 
     public static final String OAUTH_FILTER_URL = "oauth";
     public static final String OAUTH_CLBK_FILTER_URL = "oauth-clbk";
+    public static final String EVENTS_SERVLET_URL = "events";
     public static final String DEFAULT_ASYNC_TRANSPORT = "long_polling";
+    public static final int DEFAULT_ASYNC_BATCH_WINDOW = 30;
+    public static final int DEFAULT_ASYNC_HISTORY_SIZE = 100;
+    public static final int DEFAULT_ASYNC_QUEUE_LIMIT = 50;
+    public static final int DEFAULT_ASYNC_CHANNEL_IDLE_TIMEOUT = 300;
+    public static final int DEFAULT_PRESENCE_HEARTBEAT = 30;
+    public static final int DEFAULT_CLUSTER_PORT = 7800;
 
     private Constants() {}
 
@@ -15,26 +15,101 @@
  */
 package org.lbogdanov.poker.core;
 
+import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.primitives.Ints;
 
 
 /**
  * Represents a time interval stored as a number of minutes, is used to represent an estimate in a Planning Poker game.
+ * Instances are immutable, {@link #valueOf(int)} returns shared instances of commonly used estimates.
  * 
  * @author Alexandra Fomina
  */
-public class Duration implements Comparable<Duration> {
+public final class Duration implements Comparable<Duration> {
 
     static final int MINUTES_PER_HOUR = 60;
     static final int MINUTES_PER_DAY = MINUTES_PER_HOUR * 8;
     static final int MINUTES_PER_WEEK = MINUTES_PER_DAY * 5;
 
-    private int minutes;
+    private static final int[] UNITS = {MINUTES_PER_WEEK, MINUTES_PER_DAY, MINUTES_PER_HOUR, 1};
+    private static final char[] UNIT_NAMES = {'w', 'd', 'h', 'm'};
+
+    // commonly used estimates: minutes, hours of a day, days of a week, weeks and Fibonacci-style hours
+    private static final int[] CANONICAL_MINUTES = canonicalMinutes(
+        0, 15, 30, 45,
+        MINUTES_PER_HOUR, 2 * MINUTES_PER_HOUR, 3 * MINUTES_PER_HOUR, 4 * MINUTES_PER_HOUR, 5 * MINUTES_PER_HOUR,
+        6 * MINUTES_PER_HOUR, 7 * MINUTES_PER_HOUR,
+        MINUTES_PER_DAY, 2 * MINUTES_PER_DAY, 3 * MINUTES_PER_DAY, 4 * MINUTES_PER_DAY,
+        MINUTES_PER_WEEK, 2 * MINUTES_PER_WEEK, 3 * MINUTES_PER_WEEK, 4 * MINUTES_PER_WEEK,
+        13 * MINUTES_PER_HOUR, 21 * MINUTES_PER_HOUR, 34 * MINUTES_PER_HOUR, 55 * MINUTES_PER_HOUR,
+        89 * MINUTES_PER_HOUR
+    );
+    private static final Duration[] CANONICAL = new Duration[CANONICAL_MINUTES.length];
+    static {
+        for (int i = 0; i < CANONICAL.length; i++) {
+            CANONICAL[i] = new Duration(CANONICAL_MINUTES[i]);
+        }
+    }
+
+    private final int minutes;
+
+    /**
+     * Returns a <code>Duration</code> instance with a specified number of minutes. Commonly used estimates are
+     * returned as shared instances, other values are created as needed.
+     * 
+     * @param minutes the number of minutes, must be non-negative
+     * @return the <code>Duration</code> instance
+     */
+    public static Duration valueOf(int minutes) {
+        int i = Arrays.binarySearch(CANONICAL_MINUTES, minutes);
+        return i >= 0 ? CANONICAL[i] : new Duration(minutes);
+    }
+
+    /**
+     * Returns numbers of minutes of specified durations, so a collection of estimates can be kept as an array
+     * of primitives.
+     * 
+     * @param durations the durations
+     * @return the numbers of minutes in the iteration order
+     */
+    public static int[] toMinutes(Collection<Duration> durations) {
+        int[] minutes = new int[durations.size()];
+        int i = 0;
+        for (Duration duration : durations) {
+            minutes[i++] = duration.minutes;
+        }
+        return minutes;
+    }
+
+    /**
+     * Returns a fixed-size list view of numbers of minutes, elements are created by {@link #valueOf(int)} when
+     * accessed and the array itself is not copied.
+     * 
+     * @param minutes the numbers of minutes, must be non-negative
+     * @return the list of durations
+     */
+    public static List<Duration> asList(final int... minutes) {
+        return new AbstractList<Duration>() {
+
+            @Override
+            public Duration get(int index) {
+                return valueOf(minutes[index]);
+            }
+
+            @Override
+            public int size() {
+                return minutes.length;
+            }
+
+        };
+    }
 
     /**
      * Parses the given <code>String</code> to a <code>List</code> of <code>Duration</code> objects.
@@ -45,16 +120,46 @@ public class Duration implements Comparable<Duration> {
      * @param input a <code>String</code> to parse
      * @return the durations represented by the given <code>String</code>
      * @throws IllegalArgumentException if the given <code>String</code> doesn't matches syntax
+     * @see #parse(CharSequence, int[])
      */
     public static List<Duration> parse(String input) {
-        List<Duration> durations = new ArrayList<Duration>();
-        StringBuilder duration = new StringBuilder();
-        for (char chr : input.toCharArray()) {
+        int[] minutes = new int[input.length() / 2 + 1]; // every duration takes at least two characters
+        int count = parse(input, minutes);
+        List<Duration> durations = new ArrayList<Duration>(count);
+        for (int i = 0; i < count; i++) {
+            durations.add(valueOf(minutes[i]));
+        }
+        return durations;
+    }
+
+    /**
+     * Parses durations in the {@link #parse(String)} syntax straight into numbers of minutes without creating any
+     * objects unless the input is invalid. Durations which don't fit into the output array are only validated and
+     * counted.
+     * 
+     * @param input a <code>CharSequence</code> to parse
+     * @param minutes the array to put numbers of minutes to, may be <code>null</code> to only validate the input
+     * @return the number of durations in the input
+     * @throws IllegalArgumentException if the given <code>CharSequence</code> doesn't matches syntax
+     */
+    public static int parse(CharSequence input, int[] minutes) {
+        int count = 0;
+        int value = 0;
+        int start = -1; // the first digit of the current duration
+        for (int i = 0, length = input.length(); i < length; i++) {
+            char chr = input.charAt(i);
             if (Character.isWhitespace(chr) || chr == ',' || chr == ';') {
                 continue;
             }
             if (Character.isDigit(chr)) {
-                duration.append(chr);
+                if (start < 0) {
+                    start = i;
+                }
+                int digit = Character.digit(chr, 10);
+                if (value > (Integer.MAX_VALUE - digit) / 10) {
+                    throw new IllegalArgumentException(token(input, start, i + 1));
+                }
+                value = value * 10 + digit;
             } else {
                 int mul;
                 switch (chr) {
@@ -71,16 +176,68 @@ public class Duration implements Comparable<Duration> {
                         mul = MINUTES_PER_WEEK;
                         break;
                    default:
-                       throw new IllegalArgumentException(duration.toString() + chr);
+                       throw new IllegalArgumentException(token(input, start, i + 1));
+                }
+                if (start < 0 || value > Integer.MAX_VALUE / mul) {
+                    throw new IllegalArgumentException(token(input, start, i + 1));
+                }
+                if (minutes != null && count < minutes.length) {
+                    minutes[count] = value * mul;
                 }
-                durations.add(new Duration(Integer.parseInt(duration.toString()) * mul));
-                duration.setLength(0);
+                count++;
+                value = 0;
+                start = -1;
             }
         }
-        if (duration.length() > 0) {
-            throw new IllegalArgumentException(duration.toString());
+        if (start >= 0) {
+            throw new IllegalArgumentException(token(input, start, input.length()));
         }
-        return durations;
+        return count;
+    }
+
+    /**
+     * Formats a number of minutes like {@link #toString()} does into a specified <code>StringBuilder</code> without
+     * creating any objects.
+     * 
+     * @param minutes the number of minutes, must be non-negative
+     * @param out the <code>StringBuilder</code> to append to
+     * @return the <code>StringBuilder</code> instance
+     */
+    public static StringBuilder format(int minutes, StringBuilder out) {
+        try {
+            format(minutes, (Appendable) out);
+        } catch (IOException ioe) {
+            throw new AssertionError(ioe); // never happens for a StringBuilder
+        }
+        return out;
+    }
+
+    /**
+     * Formats a number of minutes like {@link #toString()} does into a specified <code>Appendable</code> without
+     * creating any objects.
+     * 
+     * @param minutes the number of minutes, must be non-negative
+     * @param out the <code>Appendable</code> to append to
+     * @return the <code>Appendable</code> instance
+     * @throws IOException if the <code>Appendable</code> fails
+     */
+    public static <A extends Appendable> A format(int minutes, A out) throws IOException {
+        Preconditions.checkArgument(minutes >= 0, "Value must be non-negative");
+        if (minutes == 0) {
+            out.append('0');
+            return out;
+        }
+        int n = minutes;
+        for (int i = 0; i < UNITS.length; i++) {
+            if (n >= UNITS[i]) {
+                if (n != minutes) {
+                    out.append(' ');
+                }
+                appendInt(n / UNITS[i], out).append(UNIT_NAMES[i]);
+                n %= UNITS[i];
+            }
+        }
+        return out;
     }
 
     /**
@@ -96,7 +253,8 @@ public class Duration implements Comparable<Duration> {
      * @param minutes the initial number of minutes, must be non-negative
      */
     public Duration(int minutes) {
-        setMinutes(minutes);
+        Preconditions.checkArgument(minutes >= 0, "Value must be non-negative");
+        this.minutes = minutes;
     }
 
     /**
@@ -108,42 +266,12 @@ public class Duration implements Comparable<Duration> {
         return minutes;
     }
 
-    /**
-     * Sets a number of minutes that this time interval has.
-     * 
-     * @param minutes the number of minutes, must be non-negative
-     */
-    public void setMinutes(int minutes) {
-        Preconditions.checkArgument(minutes >= 0, "Value must be non-negative");
-        this.minutes = minutes;
-    }
-
     /**
      * {@inheritDoc}
      */
     @Override
     public String toString() {
-        int n = minutes;
-        if (n == 0) {
-            return "0";
-        }
-        List<String> duration = new ArrayList<String>(4);
-        if (n >= MINUTES_PER_WEEK) {
-            duration.add((n / MINUTES_PER_WEEK) + "w");
-            n %= MINUTES_PER_WEEK;
-        }
-        if (n >= MINUTES_PER_DAY) {
-            duration.add((n / MINUTES_PER_DAY) + "d");
-            n %= MINUTES_PER_DAY;
-        }
-        if (n >= MINUTES_PER_HOUR) {
-            duration.add((n / MINUTES_PER_HOUR) + "h");
-            n %= MINUTES_PER_HOUR;
-        }
-        if (n > 0) {
-            duration.add(n + "m");
-        }
-        return Joiner.on(' ').join(duration);
+        return format(minutes, new StringBuilder()).toString();
     }
 
     /**
@@ -176,4 +304,36 @@ public class Duration implements Comparable<Duration> {
         return getMinutes();
     }
 
+    private static int[] canonicalMinutes(int... minutes) {
+        int[] sorted = minutes.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static Appendable appendInt(int value, Appendable out) throws IOException {
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.append((char) ('0' + value / divisor % 10));
+        }
+        return out;
+    }
+
+    /**
+     * Returns an invalid part of an input for an error message: the digits of a duration without separators and
+     * the character which made the duration invalid, if any.
+     */
+    private static String token(CharSequence input, int start, int end) {
+        StringBuilder token = new StringBuilder();
+        for (int i = start < 0 ? end - 1 : start; i < end; i++) {
+            char chr = input.charAt(i);
+            if (!Character.isWhitespace(chr) && chr != ',' && chr != ';') {
+                token.append(chr);
+            }
+        }
+        return token.toString();
+    }
+
 }
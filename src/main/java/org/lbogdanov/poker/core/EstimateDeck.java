@@ -0,0 +1,145 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+
+/**
+ * An immutable deck of estimate cards compiled from a session estimates string: distinct numbers of minutes sorted
+ * in ascending order and their labels. A deck is compiled once per distinct estimates string and shared by all
+ * sessions which use the same estimates, so cards are never parsed again.
+ * 
+ * @author Leonid Bogdanov
+ */
+public final class EstimateDeck {
+
+    private static final int CACHE_SIZE = 256;
+    private static final LoadingCache<String, EstimateDeck> DECKS = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .build(new CacheLoader<String, EstimateDeck>() {
+
+                @Override
+                public EstimateDeck load(String estimates) {
+                    return new EstimateDeck(estimates);
+                }
+
+            });
+
+    private final int[] minutes;
+    private final List<String> labels;
+
+    /**
+     * Returns a deck compiled from a specified estimates string.
+     * 
+     * @param estimates the estimates in the {@link Duration#parse(String)} syntax
+     * @return the deck
+     * @throws IllegalArgumentException if the estimates string doesn't matches syntax
+     */
+    public static EstimateDeck of(String estimates) {
+        try {
+            return DECKS.getUnchecked(estimates);
+        } catch (UncheckedExecutionException uee) {
+            throw Throwables.propagate(uee.getCause());
+        }
+    }
+
+    /**
+     * Returns the number of cards in the deck.
+     * 
+     * @return the number of cards
+     */
+    public int size() {
+        return minutes.length;
+    }
+
+    /**
+     * Returns the number of minutes of a card.
+     * 
+     * @param card the card position
+     * @return the number of minutes
+     */
+    public int getMinutes(int card) {
+        return minutes[card];
+    }
+
+    /**
+     * Returns the label of a card, e.g. <code>1d 4h</code>.
+     * 
+     * @param card the card position
+     * @return the label
+     */
+    public String getLabel(int card) {
+        return labels.get(card);
+    }
+
+    /**
+     * Returns the labels of all cards in ascending order.
+     * 
+     * @return the labels
+     */
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    /**
+     * Returns the position of a card with a specified number of minutes.
+     * 
+     * @param minutes the number of minutes
+     * @return the card position, or a negative value if there is no such card
+     */
+    public int indexOf(int minutes) {
+        return Arrays.binarySearch(this.minutes, minutes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return Joiner.on(' ').join(labels);
+    }
+
+    private EstimateDeck(String estimates) {
+        int[] parsed = new int[estimates.length() / 2 + 1]; // every duration takes at least two characters
+        int count = Duration.parse(estimates, parsed);
+        Arrays.sort(parsed, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || parsed[distinct - 1] != parsed[i]) {
+                parsed[distinct++] = parsed[i];
+            }
+        }
+        minutes = Arrays.copyOf(parsed, distinct);
+        ImmutableList.Builder<String> labels = ImmutableList.builder();
+        StringBuilder label = new StringBuilder();
+        for (int card : minutes) {
+            label.setLength(0);
+            labels.add(Duration.format(card, label).toString());
+        }
+        this.labels = labels.build();
+    }
+
+}
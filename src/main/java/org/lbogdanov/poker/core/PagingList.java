@@ -46,6 +46,14 @@ public interface PagingList<T> {
      */
     public int getTotalRowCount();
 
+    /**
+     * Checks whether {@link #getTotalRowCount()} returns an exact number of rows. Otherwise the number is an estimate
+     * based on the pages fetched so far: all rows up to the furthest fetched page plus one if more rows follow.
+     * 
+     * @return <code>true</code> if the total row count is exact
+     */
+    public boolean isTotalRowCountExact();
+
     /**
      * Returns total page count.
      * 
@@ -25,6 +25,7 @@ import java.util.Date;
 import javax.persistence.*;
 
 import com.google.common.base.Objects;
+import com.google.common.base.Strings;
 
 
 /**
@@ -148,6 +149,15 @@ public class Session extends AbstractEntity {
         return estimates;
     }
 
+    /**
+     * Returns a compiled deck of session estimates, the deck is shared by all sessions with the same estimates.
+     * 
+     * @return the deck of estimates
+     */
+    public EstimateDeck getDeck() {
+        return EstimateDeck.of(Strings.nullToEmpty(estimates));
+    }
+
     /**
      * Sets session estimates.
      * 
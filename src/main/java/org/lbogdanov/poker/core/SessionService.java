@@ -15,6 +15,11 @@
  */
 package org.lbogdanov.poker.core;
 
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.common.cache.CacheStats;
+
 
 /**
  * A service to create and manipulate {@link Session} instances.
@@ -39,6 +44,14 @@ public interface SessionService {
      */
     public Session find(Object id);
 
+    /**
+     * Returns sessions by specified IDs (primary keys) using a single query, IDs of non-existent sessions are skipped.
+     * 
+     * @param ids the session IDs
+     * @return the sessions mapped by their IDs
+     */
+    public Map<Long, Session> findAll(Collection<Long> ids);
+
     /**
      * Returns a session with a specified code, or <code>null</code> if no such session exists.
      * 
@@ -76,4 +89,11 @@ public interface SessionService {
      */
     public void delete(Session session);
 
+    /**
+     * Returns hit and miss statistics of session lookups by codes and IDs, all zeros if sessions aren't cached.
+     * 
+     * @return the cache statistics
+     */
+    public CacheStats getCacheStats();
+
 }
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core;
+
+
+/**
+ * An immutable result of a {@link VotingRound}. Statistics are card positions in the deck computed once by a single
+ * pass over the deck, which is sorted in ascending order. The median of an even number of votes is the lower of two
+ * middle cards, the mode is the smallest of the most voted cards, all of them are <code>-1</code> if nobody has voted.
+ * 
+ * @author Leonid Bogdanov
+ */
+public final class VotingResult {
+
+    private final EstimateDeck deck;
+    private final int[] counts;
+    private final int votes;
+    private final int min;
+    private final int max;
+    private final int median;
+    private final int mode;
+
+    /**
+     * Creates a new instance of <code>VotingResult</code>.
+     * 
+     * @param deck the cards
+     * @param counts the number of votes per card position
+     */
+    VotingResult(EstimateDeck deck, int[] counts) {
+        this.deck = deck;
+        this.counts = counts;
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        votes = total;
+        int min = -1, max = -1, median = -1, mode = -1;
+        int seen = 0;
+        int modeCount = 0;
+        int medianIndex = (total - 1) / 2;
+        for (int card = 0; card < counts.length; card++) {
+            int count = counts[card];
+            if (count <= 0) {
+                continue;
+            }
+            if (min < 0) {
+                min = card;
+            }
+            max = card;
+            if (median < 0 && seen + count > medianIndex) {
+                median = card;
+            }
+            seen += count;
+            if (count > modeCount) {
+                modeCount = count;
+                mode = card;
+            }
+        }
+        this.min = min;
+        this.max = max;
+        this.median = median;
+        this.mode = mode;
+    }
+
+    /**
+     * Returns the cards of the round.
+     * 
+     * @return the deck
+     */
+    public EstimateDeck getDeck() {
+        return deck;
+    }
+
+    /**
+     * Returns the number of votes for a card.
+     * 
+     * @param card the card position in the deck
+     * @return the number of votes
+     */
+    public int getCount(int card) {
+        return counts[card];
+    }
+
+    /**
+     * Returns the total number of votes.
+     * 
+     * @return the number of votes
+     */
+    public int getVotes() {
+        return votes;
+    }
+
+    /**
+     * Returns the smallest voted card.
+     * 
+     * @return the card position
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest voted card.
+     * 
+     * @return the card position
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the median card.
+     * 
+     * @return the card position
+     */
+    public int getMedian() {
+        return median;
+    }
+
+    /**
+     * Returns the most voted card.
+     * 
+     * @return the card position
+     */
+    public int getMode() {
+        return mode;
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.google.common.base.Preconditions;
+
+
+/**
+ * A round of voting on a single estimate. Every participant votes with a card of the session deck and may change
+ * the vote until the round is revealed.
+ * <p>
+ * Votes are counted in a per card array indexed by a card position in the deck and updated with atomic operations,
+ * so concurrent votes never wait for each other. Revealing closes the round, waits for votes which are being counted
+ * at the moment and takes a consistent snapshot of the counters, statistics are then computed by a single pass over
+ * the deck no matter how many participants have voted.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class VotingRound {
+
+    // counters of votes being counted at the moment, spread over stripes padded to separate cache lines
+    private static final int STRIPES = 16;
+    private static final int STRIPE_PADDING = 16;
+
+    private final EstimateDeck deck;
+    private final long started = System.currentTimeMillis();
+    private final AtomicIntegerArray counts;
+    private final AtomicIntegerArray inflight = new AtomicIntegerArray(STRIPES * STRIPE_PADDING);
+    private final ConcurrentMap<Long, Integer> votes = new ConcurrentHashMap<Long, Integer>();
+    private volatile boolean closed;
+    private volatile VotingResult result;
+
+    /**
+     * Creates a new instance of <code>VotingRound</code>.
+     * 
+     * @param deck the cards participants vote with, must not be empty
+     */
+    public VotingRound(EstimateDeck deck) {
+        Preconditions.checkArgument(deck.size() > 0, "Deck must not be empty");
+        this.deck = deck;
+        counts = new AtomicIntegerArray(deck.size());
+    }
+
+    /**
+     * Returns the cards participants vote with.
+     * 
+     * @return the deck
+     */
+    public EstimateDeck getDeck() {
+        return deck;
+    }
+
+    /**
+     * Returns a date when the round was started.
+     * 
+     * @return the start date
+     */
+    public Date getStarted() {
+        return new Date(started);
+    }
+
+    /**
+     * Records a vote of a participant, replaces the previous vote of the participant if any.
+     * 
+     * @param voter the participant user ID
+     * @param card the card position in the deck
+     * @return <b>true</b> if the vote was counted, <b>false</b> if the round is already revealed
+     * @throws IndexOutOfBoundsException if there is no such card in the deck
+     */
+    public boolean vote(Long voter, int card) {
+        Preconditions.checkElementIndex(card, deck.size());
+        int stripe = stripe();
+        inflight.incrementAndGet(stripe);
+        try {
+            if (closed) {
+                return false;
+            }
+            Integer previous = votes.put(voter, card);
+            if (previous == null || previous.intValue() != card) {
+                counts.incrementAndGet(card);
+                if (previous != null) {
+                    counts.decrementAndGet(previous);
+                }
+            }
+            return true;
+        } finally {
+            inflight.decrementAndGet(stripe);
+        }
+    }
+
+    /**
+     * Checks whether a participant has voted.
+     * 
+     * @param voter the participant user ID
+     * @return <b>true</b> if the participant has voted
+     */
+    public boolean hasVoted(Long voter) {
+        return votes.containsKey(voter);
+    }
+
+    /**
+     * Returns the cards participants have voted with, the votes don't change once the round is revealed.
+     * 
+     * @return participant user ID -> the card position in the deck
+     */
+    public Map<Long, Integer> getVotes() {
+        return Collections.unmodifiableMap(votes);
+    }
+
+    /**
+     * Checks whether the round is revealed, no votes are accepted afterwards.
+     * 
+     * @return <b>true</b> if the round is revealed
+     */
+    public boolean isRevealed() {
+        return closed;
+    }
+
+    /**
+     * Closes the round and returns its result, subsequent calls return the same result.
+     * 
+     * @return the result of the round
+     */
+    public synchronized VotingResult reveal() {
+        if (result == null) {
+            closed = true;
+            for (int i = 0; i < STRIPES; i++) { // votes which have seen the round open are about to be counted
+                while (inflight.get(i * STRIPE_PADDING) != 0) {
+                    Thread.yield();
+                }
+            }
+            int[] snapshot = new int[deck.size()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+            }
+            result = new VotingResult(deck, snapshot);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the result of the round, or <code>null</code> if the round is not revealed yet.
+     * 
+     * @return the result of the round
+     */
+    public VotingResult getResult() {
+        return result;
+    }
+
+    private static int stripe() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_PADDING;
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core;
+
+
+/**
+ * A service to run {@link VotingRound}s of {@link Session}s, a session has at most one current round.
+ * 
+ * @author Leonid Bogdanov
+ */
+public interface VotingService {
+
+    /**
+     * Starts a new voting round of a session with the session deck, the previous round is discarded.
+     * 
+     * @param session the session
+     * @return the new round
+     */
+    public VotingRound start(Session session);
+
+    /**
+     * Returns the current voting round of a session, or <code>null</code> if no round was started.
+     * 
+     * @param code the session code
+     * @return the current round
+     */
+    public VotingRound getRound(String code);
+
+    /**
+     * Reveals the current voting round of a session and records its result in the estimation history, the result
+     * is recorded only once.
+     * 
+     * @param session the session
+     * @return the result of the round, or <code>null</code> if no round was started
+     */
+    public VotingResult reveal(Session session);
+
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import static org.lbogdanov.poker.core.Constants.DEFAULT_CHAT_BATCH_SIZE;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_CHAT_QUEUE_SIZE;
+import static org.lbogdanov.poker.util.Settings.CHAT_BATCH_SIZE;
+import static org.lbogdanov.poker.util.Settings.CHAT_QUEUE_SIZE;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.ChatEntry;
+import org.lbogdanov.poker.core.ChatService;
+import org.lbogdanov.poker.core.Session;
+import org.lbogdanov.poker.core.UserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.Transaction;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * Implementation of {@link ChatService} interface. Posted messages are put into a bounded queue and stored by
+ * a background thread which drains the queue in batches, every batch is inserted using a single JDBC batch and
+ * a single transaction. So posting a message never waits for a database, and a busy session costs one round trip
+ * per batch rather than one per message. Messages which don't fit into the queue are not stored.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class ChatServiceImpl implements ChatService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChatServiceImpl.class);
+    private static final long POLL_TIMEOUT_MILLIS = 500;
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("chat-writer")
+            .setDaemon(true)
+            .build());
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private BlockingQueue<ChatEntry> queue;
+    private int batchSize;
+    private volatile boolean running;
+    // the batch which is being stored at the moment
+    private volatile List<ChatEntry> inflight = Collections.emptyList();
+
+    @Inject
+    private EbeanServer ebean;
+    @Inject
+    private UserService userService;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChatEntry post(Session session, String message) {
+        ChatEntry entry = new ChatEntry();
+        entry.setSession(session);
+        entry.setAuthor(userService.getCurrentUser());
+        entry.setMessage(message);
+        if (!queue.offer(entry)) {
+            droppedMessages.incrementAndGet();
+            LOG.warn("The chat queue is full, a message to a session {} won't be stored", session.getCode());
+        }
+        return entry;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<ChatEntry> findRecent(Session session, int count) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        // the pending messages are taken first, so a message stored meanwhile is either found by the query
+        // or still pending and known by ID
+        List<ChatEntry> pending = Lists.newArrayList();
+        for (ChatEntry entry : Iterables.concat(inflight, ImmutableList.copyOf(queue))) {
+            if (session.equals(entry.getSession())) {
+                pending.add(entry);
+            }
+        }
+        List<ChatEntry> stored = ebean.find(ChatEntry.class)
+                                      .fetch("author")
+                                      .where().eq("session", session)
+                                      .orderBy().desc("id")
+                                      .setMaxRows(count)
+                                      .findList();
+        Set<Long> storedIds = Sets.newHashSetWithExpectedSize(stored.size());
+        for (ChatEntry entry : stored) {
+            storedIds.add(entry.getId());
+        }
+        List<ChatEntry> recent = Lists.newArrayList(Lists.reverse(stored));
+        for (ChatEntry entry : pending) {
+            if (entry.getId() == null || !storedIds.contains(entry.getId())) {
+                recent.add(entry);
+            }
+        }
+        return recent.subList(Math.max(recent.size() - count, 0), recent.size());
+    }
+
+    /**
+     * Returns the number of chat messages which were not stored because the queue was full or a batch failed.
+     * 
+     * @return the number of dropped messages
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * Stores all the queued messages and stops the background thread, is called when the application shuts down.
+     */
+    public void stop() {
+        running = false;
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Couldn't store {} chat messages in time", queue.size());
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads the queue settings and starts the background thread, is called once the instance is injected.
+     */
+    @Inject
+    void init() {
+        queue = new ArrayBlockingQueue<ChatEntry>(Math.max(CHAT_QUEUE_SIZE.asInt().or(DEFAULT_CHAT_QUEUE_SIZE), 1));
+        batchSize = Math.max(CHAT_BATCH_SIZE.asInt().or(DEFAULT_CHAT_BATCH_SIZE), 1);
+        running = true;
+        writer.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                drain();
+            }
+
+        });
+    }
+
+    private void drain() {
+        try {
+            while (running || !queue.isEmpty()) {
+                ChatEntry first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    List<ChatEntry> batch = Lists.newArrayListWithCapacity(batchSize);
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    inflight = batch;
+                    try {
+                        store(batch);
+                    } catch (RuntimeException re) {
+                        droppedMessages.addAndGet(batch.size());
+                        LOG.warn("Couldn't store " + batch.size() + " chat messages", re);
+                    } finally {
+                        inflight = Collections.emptyList();
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void store(List<ChatEntry> batch) {
+        Transaction tx = ebean.beginTransaction();
+        try {
+            tx.setBatchMode(true);
+            tx.setBatchSize(batch.size());
+            for (ChatEntry entry : batch) {
+                ebean.save(entry, tx);
+            }
+            tx.commit();
+        } finally {
+            tx.end();
+        }
+    }
+
+}
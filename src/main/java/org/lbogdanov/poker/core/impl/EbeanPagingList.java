@@ -53,6 +53,14 @@ class EbeanPagingList<T> implements PagingList<T> {
         return list.getTotalRowCount();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isTotalRowCountExact() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
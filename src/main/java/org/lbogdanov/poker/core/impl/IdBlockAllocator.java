@@ -0,0 +1,125 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.PersistenceException;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.Transaction;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Allocates primary keys of tables which are written by plain JDBC batches. Keys are reserved in blocks by a single
+ * update of the <code>ID_BLOCKS</code> table, so rows can reference each other within a batch without asking
+ * a database for generated keys, and the table is only touched once per block.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+class IdBlockAllocator {
+
+    /**
+     * A reserved range of keys.
+     */
+    private static final class Block {
+
+        long next;
+        long end;
+
+    }
+
+    private static final int BLOCK_SIZE = 1000;
+    // MySQL keeps the value passed to LAST_INSERT_ID(expr) per connection, so the new value is read without a lock
+    private static final String RESERVE_SQL =
+            "UPDATE ID_BLOCKS SET NEXT_ID = LAST_INSERT_ID(NEXT_ID + ?) WHERE NAME = ?";
+    private static final String RESERVED_SQL = "SELECT LAST_INSERT_ID()";
+
+    private final Map<String, Block> blocks = Maps.newHashMap();
+
+    @Inject
+    private EbeanServer ebean;
+
+    /**
+     * Allocates a range of consecutive keys of a table.
+     *
+     * @param table the table name
+     * @param count the number of keys
+     * @return the first key of the range
+     */
+    synchronized long allocate(String table, int count) {
+        Block block = blocks.get(table);
+        if (block == null) {
+            block = new Block();
+            blocks.put(table, block);
+        }
+        if (block.end - block.next < count) { // the rest of the block is wasted, which is fine for surrogate keys
+            block.end = reserve(table, Math.max(count, BLOCK_SIZE));
+            block.next = block.end - Math.max(count, BLOCK_SIZE);
+        }
+        long first = block.next;
+        block.next += count;
+        return first;
+    }
+
+    /**
+     * Reserves a block of keys of a table, the block ends right before the returned key.
+     *
+     * @param table the table name
+     * @param size the number of keys to reserve
+     * @return the key which follows the reserved block
+     */
+    long reserve(String table, int size) {
+        Transaction tx = ebean.createTransaction(); // is committed at once, so the row lock isn't held
+        try {
+            Connection connection = tx.getConnection();
+            PreparedStatement reserve = connection.prepareStatement(RESERVE_SQL);
+            try {
+                reserve.setInt(1, size);
+                reserve.setString(2, table);
+                if (reserve.executeUpdate() != 1) {
+                    throw new PersistenceException("No ID block for a table " + table);
+                }
+            } finally {
+                reserve.close();
+            }
+            long end;
+            PreparedStatement reserved = connection.prepareStatement(RESERVED_SQL);
+            try {
+                ResultSet rs = reserved.executeQuery();
+                rs.next();
+                end = rs.getLong(1);
+            } finally {
+                reserved.close();
+            }
+            tx.commit();
+            return end;
+        } catch (SQLException sqle) {
+            throw new PersistenceException("Couldn't reserve an ID block for a table " + table, sqle);
+        } finally {
+            tx.end();
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.lbogdanov.poker.core.PagingList;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+
+
+/**
+ * A {@link PagingList} implementation over an ordered list of IDs which is already known, e.g. found by an index.
+ * Every page is loaded by its IDs using a single query.
+ *
+ * @author Alexandra Fomina
+ */
+class IdPagingList<T> implements PagingList<T> {
+
+    private final List<Long> ids;
+    private final int pageSize;
+    private final Function<Collection<Long>, Map<Long, T>> loader;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<T> getAsList() {
+        return load(ids);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTotalRowCount() {
+        return ids.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isTotalRowCountExact() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTotalPageCount() {
+        return (ids.size() + pageSize - 1) / pageSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<T> getPage(int i) {
+        int from = Math.min(i * pageSize, ids.size());
+        return load(ids.subList(from, Math.min(from + pageSize, ids.size())));
+    }
+
+    /**
+     * Creates a new instance of <code>IdPagingList</code>.
+     *
+     * @param ids the ordered IDs of rows
+     * @param pageSize the max number of rows in a page
+     * @param loader the function which loads rows by their IDs
+     */
+    IdPagingList(List<Long> ids, int pageSize, Function<Collection<Long>, Map<Long, T>> loader) {
+        this.ids = ids;
+        this.pageSize = pageSize;
+        this.loader = loader;
+    }
+
+    private List<T> load(List<Long> pageIds) {
+        Map<Long, T> rows = loader.apply(pageIds);
+        List<T> page = Lists.newArrayListWithCapacity(pageIds.size());
+        for (Long id : pageIds) {
+            T row = rows.get(id);
+            if (row != null) { // could have been deleted since the IDs were found
+                page.add(row);
+            }
+        }
+        return page;
+    }
+
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.lbogdanov.poker.core.AbstractEntity;
+import org.lbogdanov.poker.core.PagingList;
+
+import com.avaje.ebean.Expr;
+import com.avaje.ebean.Expression;
+import com.avaje.ebean.Query;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+
+
+/**
+ * A {@link PagingList} implementation which pages by a sort key plus ID (a.k.a. keyset or seek pagination) instead of
+ * <code>LIMIT/OFFSET</code>. The last row of every fetched page is remembered, so a page next to an already seen one
+ * is read by an index seek, no matter how deep it is. Pages further away are reached from the nearest known position,
+ * including the end of the list.
+ * <p>
+ * A total row count is either supplied from outside, e.g. from a cache, or estimated: then every page is fetched with
+ * one extra row which tells whether more rows follow and no count query is run at all.
+ *
+ * @author Alexandra Fomina
+ */
+class KeysetPagingList<T extends AbstractEntity> implements PagingList<T> {
+
+    /**
+     * A position in a sort order: a sort key value and an ID of a row.
+     */
+    static final class Position {
+
+        final Object key;
+        final Long id;
+
+        Position(Object key, Long id) {
+            this.key = key;
+            this.id = id;
+        }
+
+    }
+
+    private final Query<T> query;
+    private final String keyProperty;
+    private final Function<? super T, ?> keyFunction;
+    private final boolean ascending;
+    private final int pageSize;
+    private final Optional<Supplier<Integer>> rowCounter;
+    // page number -> a position of the last row of the previous page
+    private final NavigableMap<Integer, Position> anchors = new TreeMap<Integer, Position>();
+    private Integer totalRowCount;
+    private int lastPageNumber = -1;
+    private List<T> lastPage;
+    // the furthest fetched page, is used to estimate a total row count
+    private int furthestPageNumber = -1;
+    private int furthestPageSize;
+    private boolean moreRows;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<T> getAsList() {
+        return fetch(null, true, false, 0, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTotalRowCount() {
+        if (!rowCounter.isPresent()) {
+            if (furthestPageNumber < 0) {
+                getPage(0);
+            }
+            return furthestPageNumber * pageSize + furthestPageSize + (moreRows ? 1 : 0);
+        }
+        if (totalRowCount == null) {
+            totalRowCount = rowCounter.get().get();
+        }
+        return totalRowCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isTotalRowCountExact() {
+        return rowCounter.isPresent();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTotalPageCount() {
+        return (getTotalRowCount() + pageSize - 1) / pageSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<T> getPage(int i) {
+        if (i != lastPageNumber) {
+            List<T> page = load(i);
+            boolean more = page.size() > pageSize || anchors.containsKey(i + 1);
+            if (page.size() > pageSize) { // a look-ahead row, only tells that there are more rows
+                page = page.subList(0, pageSize);
+            }
+            if (page.size() == pageSize) {
+                T last = page.get(pageSize - 1);
+                anchors.put(i + 1, new Position(keyFunction.apply(last), last.getId()));
+            }
+            if (i >= furthestPageNumber && (!page.isEmpty() || furthestPageNumber < 0)) { // not past the end
+                furthestPageNumber = i;
+                furthestPageSize = page.size();
+                moreRows = more;
+            }
+            lastPage = page;
+            lastPageNumber = i;
+        }
+        return lastPage;
+    }
+
+    /**
+     * Creates a new instance of <code>KeysetPagingList</code>.
+     *
+     * @param query the query which selects rows to page through, its order by clause is ignored
+     * @param keyProperty the sort key property name
+     * @param keyFunction the function which extracts the sort key value from a row
+     * @param ascending <code>true</code> for ascending sort order
+     * @param pageSize the max number of rows in a page
+     * @param rowCounter supplies an exact total row count; if absent, the count is estimated and a page is fetched
+     *                   with one extra row to tell whether more rows follow
+     */
+    KeysetPagingList(Query<T> query, String keyProperty, Function<? super T, ?> keyFunction,
+                     boolean ascending, int pageSize, Optional<Supplier<Integer>> rowCounter) {
+        this.query = query;
+        this.keyProperty = keyProperty;
+        this.keyFunction = keyFunction;
+        this.ascending = ascending;
+        this.pageSize = pageSize;
+        this.rowCounter = rowCounter;
+    }
+
+    private List<T> load(int i) {
+        Map.Entry<Integer, Position> before = anchors.floorEntry(i);
+        Map.Entry<Integer, Position> after = anchors.higherEntry(i);
+        int forwardSkip = (i - (before == null ? 0 : before.getKey())) * pageSize;
+        int backwardSkip = after == null ? Integer.MAX_VALUE : (after.getKey() - 1 - i) * pageSize;
+        int endSkip = Integer.MAX_VALUE;
+        int lastRows = pageSize;
+        if (totalRowCount != null) {
+            endSkip = Math.max(totalRowCount - (i + 1) * pageSize, 0);
+            lastRows = Math.min(pageSize, totalRowCount - i * pageSize);
+            if (lastRows <= 0) {
+                return Collections.emptyList();
+            }
+        }
+
+        List<T> page;
+        if (forwardSkip <= backwardSkip && forwardSkip <= endSkip) {
+            int count = rowCounter.isPresent() ? pageSize : pageSize + 1;
+            return fetch(before == null ? null : before.getValue(), true, false, forwardSkip, count);
+        } else if (backwardSkip <= endSkip) {
+            page = fetch(after.getValue(), false, true, backwardSkip, pageSize);
+        } else { // closer to the end of the list
+            page = fetch(null, false, false, endSkip, lastRows);
+        }
+        Collections.reverse(page);
+        return page;
+    }
+
+    /**
+     * Fetches rows starting from a specified position.
+     *
+     * @param from the position to start from, <code>null</code> to start from either end of the list
+     * @param forward <code>true</code> to move in the sort order, <code>false</code> to move backwards
+     * @param inclusive <code>true</code> if the starting row itself must be included
+     * @param skip the number of rows to skip
+     * @param count the max number of rows to fetch, <code>0</code> means no limit
+     * @return the rows in the order they were fetched
+     */
+    List<T> fetch(Position from, boolean forward, boolean inclusive, int skip, int count) {
+        boolean up = forward == ascending;
+        Query<T> page = query.copy();
+        if (from != null) {
+            page.where().or(up ? Expr.gt(keyProperty, from.key) : Expr.lt(keyProperty, from.key),
+                            Expr.and(Expr.eq(keyProperty, from.key), idExpression(up, inclusive, from.id)));
+        }
+        String direction = up ? " asc" : " desc";
+        page.orderBy(keyProperty + direction + ", id" + direction);
+        if (skip > 0) {
+            page.setFirstRow(skip);
+        }
+        if (count > 0) {
+            page.setMaxRows(count);
+        }
+        return page.findList();
+    }
+
+    private static Expression idExpression(boolean up, boolean inclusive, Long id) {
+        if (up) {
+            return inclusive ? Expr.ge("id", id) : Expr.gt("id", id);
+        } else {
+            return inclusive ? Expr.le("id", id) : Expr.lt("id", id);
+        }
+    }
+
+}
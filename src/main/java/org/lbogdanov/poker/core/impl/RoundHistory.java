@@ -0,0 +1,214 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.PersistenceException;
+
+import org.lbogdanov.poker.core.EstimateDeck;
+import org.lbogdanov.poker.core.Session;
+import org.lbogdanov.poker.core.VotingResult;
+import org.lbogdanov.poker.core.VotingRound;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.Transaction;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * Stores results of voting rounds into the estimation history: a row of the <code>ROUNDS</code> table per round and
+ * a row of the <code>VOTES</code> table per vote. Rounds are queued and stored by a background thread, so revealing
+ * a round never waits for a database. Keys are taken from {@link IdBlockAllocator}, so all rows of a round are
+ * inserted by a single transaction using one JDBC batch per table without reading generated keys back.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+class RoundHistory {
+
+    /**
+     * A revealed round waiting to be stored.
+     */
+    private static final class Entry {
+
+        final Long sessionId;
+        final VotingRound round;
+        final VotingResult result;
+        final long revealed = System.currentTimeMillis();
+
+        Entry(Long sessionId, VotingRound round, VotingResult result) {
+            this.sessionId = sessionId;
+            this.round = round;
+            this.result = result;
+        }
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoundHistory.class);
+    private static final int MAX_QUEUED_ROUNDS = 1000;
+    private static final long POLL_TIMEOUT_MILLIS = 500;
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+    private static final String INSERT_ROUND_SQL = "INSERT INTO ROUNDS (ID, SESSION_ID, ESTIMATES, STARTED, REVEALED, "
+            + "VOTES, MIN_MINUTES, MAX_MINUTES, MEDIAN_MINUTES, MODE_MINUTES) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_VOTE_SQL = "INSERT INTO VOTES (ID, ROUND_ID, USER_ID, MINUTES) "
+            + "VALUES (?, ?, ?, ?)";
+
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(MAX_QUEUED_ROUNDS);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("round-history-writer")
+            .setDaemon(true)
+            .build());
+    private volatile boolean running;
+
+    @Inject
+    private EbeanServer ebean;
+    @Inject
+    private IdBlockAllocator idAllocator;
+
+    /**
+     * Queues the result of a revealed round to be stored, the result is not stored if the queue is full.
+     *
+     * @param session the session of the round
+     * @param round the revealed round
+     * @param result the result of the round
+     */
+    void record(Session session, VotingRound round, VotingResult result) {
+        if (!queue.offer(new Entry(session.getId(), round, result))) {
+            LOG.warn("The round history queue is full, a round of a session {} won't be stored", session.getCode());
+        }
+    }
+
+    /**
+     * Stores all the queued rounds and stops the background thread.
+     */
+    void stop() {
+        running = false;
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Couldn't store {} voting rounds in time", queue.size());
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts the background thread, is called once the instance is injected.
+     */
+    @Inject
+    void init() {
+        running = true;
+        writer.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                drain();
+            }
+
+        });
+    }
+
+    private void drain() {
+        try {
+            while (running || !queue.isEmpty()) {
+                Entry entry = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (entry != null) {
+                    try {
+                        store(entry);
+                    } catch (RuntimeException re) {
+                        LOG.warn("Couldn't store a voting round", re);
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void store(Entry entry) {
+        EstimateDeck deck = entry.round.getDeck();
+        VotingResult result = entry.result;
+        Map<Long, Integer> votes = entry.round.getVotes();
+        long roundId = idAllocator.allocate("ROUNDS", 1);
+        long voteId = votes.isEmpty() ? 0 : idAllocator.allocate("VOTES", votes.size());
+        Transaction tx = ebean.beginTransaction();
+        try {
+            Connection connection = tx.getConnection();
+            PreparedStatement insertRound = connection.prepareStatement(INSERT_ROUND_SQL);
+            try {
+                insertRound.setLong(1, roundId);
+                insertRound.setLong(2, entry.sessionId);
+                insertRound.setString(3, deck.toString());
+                insertRound.setTimestamp(4, new Timestamp(entry.round.getStarted().getTime()));
+                insertRound.setTimestamp(5, new Timestamp(entry.revealed));
+                insertRound.setInt(6, result.getVotes());
+                setMinutes(insertRound, 7, deck, result.getMin());
+                setMinutes(insertRound, 8, deck, result.getMax());
+                setMinutes(insertRound, 9, deck, result.getMedian());
+                setMinutes(insertRound, 10, deck, result.getMode());
+                insertRound.executeUpdate();
+            } finally {
+                insertRound.close();
+            }
+            if (!votes.isEmpty()) {
+                PreparedStatement insertVote = connection.prepareStatement(INSERT_VOTE_SQL);
+                try {
+                    for (Map.Entry<Long, Integer> vote : votes.entrySet()) {
+                        insertVote.setLong(1, voteId++);
+                        insertVote.setLong(2, roundId);
+                        insertVote.setLong(3, vote.getKey());
+                        insertVote.setInt(4, deck.getMinutes(vote.getValue()));
+                        insertVote.addBatch();
+                    }
+                    insertVote.executeBatch();
+                } finally {
+                    insertVote.close();
+                }
+            }
+            tx.commit();
+        } catch (SQLException sqle) {
+            throw new PersistenceException(sqle);
+        } finally {
+            tx.end();
+        }
+    }
+
+    private static void setMinutes(PreparedStatement statement, int index, EstimateDeck deck, int card)
+            throws SQLException {
+        if (card < 0) {
+            statement.setNull(index, Types.INTEGER);
+        } else {
+            statement.setInt(index, deck.getMinutes(card));
+        }
+    }
+
+}
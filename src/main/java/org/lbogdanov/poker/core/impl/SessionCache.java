@@ -0,0 +1,182 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import static org.lbogdanov.poker.core.Constants.SESSION_CACHE_DEFAULT_SIZE;
+import static org.lbogdanov.poker.util.Settings.SESSION_CACHE_ENABLED;
+import static org.lbogdanov.poker.util.Settings.SESSION_CACHE_SIZE;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.ClusterEvents;
+import org.lbogdanov.poker.core.Session;
+import org.lbogdanov.poker.core.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.primitives.Longs;
+
+
+/**
+ * A node-local, size bounded cache of sessions looked up by their codes or IDs. Sessions don't change once created,
+ * so cached instances are only dropped when sessions are deleted, evicted or expire. A deletion is also published
+ * to other nodes as a {@link ClusterEvents} event, expiration bounds the staleness if such an event is lost. The cache
+ * keeps detached copies of sessions and hands out copies of them, so callers can't change cached state. The cache
+ * can be switched off by the {@link org.lbogdanov.poker.util.Settings#SESSION_CACHE_ENABLED} setting.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+class SessionCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionCache.class);
+    private static final long TTL_MINUTES = 10;
+    private static final String INVALIDATE_TOPIC = "session.invalidate";
+
+    private boolean enabled;
+    private Cache<String, Session> byCode;
+    private Cache<Long, Session> byId;
+
+    @Inject
+    private ClusterEvents events;
+
+    /**
+     * Returns a cached session with a specified code.
+     *
+     * @param code the session code
+     * @return the session, or <code>null</code> if the session is not cached
+     */
+    public Session getByCode(String code) {
+        return enabled ? copy(byCode.getIfPresent(code)) : null;
+    }
+
+    /**
+     * Returns a cached session with a specified ID.
+     *
+     * @param id the session ID
+     * @return the session, or <code>null</code> if the session is not cached
+     */
+    public Session getById(Long id) {
+        return enabled ? copy(byId.getIfPresent(id)) : null;
+    }
+
+    /**
+     * Puts a session into the cache, so it can be looked up both by its code and ID.
+     *
+     * @param session the session, must have its author loaded
+     */
+    public void put(Session session) {
+        if (enabled) {
+            Session copy = copy(session);
+            byCode.put(copy.getCode(), copy);
+            byId.put(copy.getId(), copy);
+        }
+    }
+
+    /**
+     * Drops a deleted session from the caches of this and all other nodes.
+     *
+     * @param session the session
+     */
+    public void invalidate(Session session) {
+        if (enabled) {
+            invalidate(session.getId(), session.getCode());
+            events.publish(INVALIDATE_TOPIC, session.getId() + " " + session.getCode());
+        }
+    }
+
+    /**
+     * Returns hit and miss statistics of lookups by both codes and IDs.
+     *
+     * @return the cache statistics
+     */
+    public CacheStats stats() {
+        return enabled ? byCode.stats().plus(byId.stats()) : new CacheStats(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Reads the cache settings, is called once the instance is injected.
+     */
+    @Inject
+    void init() {
+        enabled = SESSION_CACHE_ENABLED.asBool().or(true);
+        if (enabled) {
+            int size = Math.max(SESSION_CACHE_SIZE.asInt().or(SESSION_CACHE_DEFAULT_SIZE), 1);
+            byCode = CacheBuilder.newBuilder()
+                                 .maximumSize(size)
+                                 .expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES)
+                                 .recordStats()
+                                 .build();
+            byId = CacheBuilder.newBuilder()
+                               .maximumSize(size)
+                               .expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES)
+                               .recordStats()
+                               .build();
+            events.subscribe(INVALIDATE_TOPIC, new ClusterEvents.Listener() {
+
+                @Override
+                public void onEvent(String topic, String payload) {
+                    int space = payload.indexOf(' ');
+                    invalidate(Longs.tryParse(payload.substring(0, Math.max(space, 0))), payload.substring(space + 1));
+                }
+
+            });
+            LOG.info("Session cache enabled, max {} sessions", size);
+        }
+    }
+
+    private void invalidate(Long id, String code) {
+        byCode.invalidate(code);
+        if (id != null) {
+            byId.invalidate(id);
+        }
+    }
+
+    /**
+     * Makes a detached copy of a session and its author, which isn't tracked by Ebean and isn't shared.
+     */
+    private static Session copy(Session session) {
+        if (session == null) {
+            return null;
+        }
+        User author = session.getAuthor();
+        Session copy = new Session();
+        copy.setId(session.getId());
+        copy.setName(session.getName());
+        copy.setCode(session.getCode());
+        copy.setDescription(session.getDescription());
+        copy.setEstimates(session.getEstimates());
+        copy.setCreated(session.getCreated() == null ? null : new Date(session.getCreated().getTime()));
+        if (author != null) {
+            User authorCopy = new User();
+            authorCopy.setId(author.getId());
+            authorCopy.setFirstName(author.getFirstName());
+            authorCopy.setLastName(author.getLastName());
+            authorCopy.setEmail(author.getEmail());
+            authorCopy.setExternalId(author.getExternalId());
+            copy.setAuthor(authorCopy);
+        }
+        return copy;
+    }
+
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.ClusterEvents;
+import org.lbogdanov.poker.core.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.avaje.ebean.EbeanServer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * A node-local index of existing session codes, answers "does a session exist" questions without a database
+ * round trip. Codes of sessions created and deleted on other nodes are learnt from {@link ClusterEvents}, and all
+ * codes are reloaded by a background thread every {@link #RELOAD_INTERVAL} to recover from lost events. A code
+ * which isn't in the index is looked up in a database only within {@link #CREATE_WINDOW} after a session was
+ * created on another node, as events of other sessions created at about the same time may still be in flight.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+class SessionCodeIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionCodeIndex.class);
+    private static final long RELOAD_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+    private static final long CREATE_WINDOW = TimeUnit.SECONDS.toMillis(10);
+    private static final String CODES_TOPIC = "session.code";
+
+    // session code -> the time the code was added
+    private volatile ConcurrentMap<String, Long> codes = new ConcurrentHashMap<String, Long>();
+    // session code -> the time the code was removed, so a reload doesn't bring back codes removed while loading
+    private final ConcurrentMap<String, Long> removed = new ConcurrentHashMap<String, Long>();
+    private final ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("session-code-index").setDaemon(true).build());
+    private volatile long lastRemoteCreate;
+
+    @Inject
+    private EbeanServer ebean;
+    @Inject
+    private ClusterEvents events;
+
+    /**
+     * Checks whether a session with a specified code exists.
+     *
+     * @param code the session code
+     * @return <b>true</b> if the session with the specified code exists, otherwise <b>false</b>
+     */
+    public boolean contains(String code) {
+        if (codes.containsKey(code)) {
+            return true;
+        }
+        if (System.currentTimeMillis() - lastRemoteCreate >= CREATE_WINDOW) {
+            return false;
+        }
+        boolean exists = ebean.find(Session.class)
+                              .where().eq("code", code)
+                              .findRowCount() != 0;
+        if (exists) {
+            put(code);
+        }
+        return exists;
+    }
+
+    /**
+     * Adds a code of a newly created session to the indexes of this and all other nodes.
+     *
+     * @param code the session code
+     */
+    public void add(String code) {
+        put(code);
+        events.publish(CODES_TOPIC, "+" + code);
+    }
+
+    /**
+     * Removes a code of a deleted session from the indexes of this and all other nodes.
+     *
+     * @param code the session code
+     */
+    public void remove(String code) {
+        delete(code);
+        events.publish(CODES_TOPIC, "-" + code);
+    }
+
+    /**
+     * Loads codes of all existing sessions and schedules periodic reloads, is called once the instance is injected.
+     */
+    @Inject
+    void load() {
+        events.subscribe(CODES_TOPIC, new ClusterEvents.Listener() {
+
+            @Override
+            public void onEvent(String topic, String payload) {
+                String code = payload.substring(1);
+                if (payload.startsWith("+")) {
+                    lastRemoteCreate = System.currentTimeMillis();
+                    put(code);
+                } else {
+                    delete(code);
+                }
+            }
+
+        });
+        reload();
+        LOG.info("Session code index loaded, {} codes", codes.size());
+        reloader.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    reload();
+                } catch (RuntimeException re) {
+                    LOG.warn("Couldn't reload the session code index", re);
+                }
+            }
+
+        }, RELOAD_INTERVAL, RELOAD_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void put(String code) {
+        codes.put(code, System.currentTimeMillis());
+        removed.remove(code);
+    }
+
+    private synchronized void delete(String code) {
+        codes.remove(code);
+        removed.put(code, System.currentTimeMillis());
+    }
+
+    private void reload() {
+        long started = System.currentTimeMillis();
+        ConcurrentMap<String, Long> loaded = new ConcurrentHashMap<String, Long>();
+        for (Session session : ebean.find(Session.class).select("code").findList()) {
+            loaded.put(session.getCode(), started);
+        }
+        synchronized (this) {
+            for (Map.Entry<String, Long> added : codes.entrySet()) { // added while loading
+                if (added.getValue() >= started) {
+                    loaded.put(added.getKey(), added.getValue());
+                }
+            }
+            for (Map.Entry<String, Long> deleted : removed.entrySet()) {
+                if (deleted.getValue() >= started) { // removed while loading
+                    loaded.remove(deleted.getKey());
+                } else {
+                    removed.remove(deleted.getKey());
+                }
+            }
+            codes = loaded;
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import static org.lbogdanov.poker.core.Constants.SESSION_CODE_DEFAULT_LENGTH;
+import static org.lbogdanov.poker.core.Constants.SESSION_CODE_MAX_LENGTH;
+import static org.lbogdanov.poker.core.Constants.SESSION_CODE_POOL_DEFAULT_SIZE;
+import static org.lbogdanov.poker.core.Constants.SESSION_CODE_POOL_DEFAULT_THRESHOLD;
+import static org.lbogdanov.poker.util.Settings.SESSION_CODE_LENGTH;
+import static org.lbogdanov.poker.util.Settings.SESSION_CODE_POOL_SIZE;
+import static org.lbogdanov.poker.util.Settings.SESSION_CODE_POOL_THRESHOLD;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.avaje.ebean.EbeanServer;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * A pool of unique session codes which are generated ahead of time by a background thread. Codes are generated
+ * in batches and every batch is checked for collisions with existing sessions by a single query.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+class SessionCodePool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionCodePool.class);
+
+    private final BlockingQueue<String> codes = new LinkedBlockingQueue<String>();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final ExecutorService refiller = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("session-code-pool")
+            .setDaemon(true)
+            .build());
+    private final Random rnd = new SecureRandom();
+    private int length;
+    private int size;
+    private int threshold;
+
+    @Inject
+    private EbeanServer ebean;
+
+    /**
+     * Takes the next unique session code from the pool. Generates a code in place if the pool is exhausted.
+     *
+     * @return the session code
+     */
+    public String take() {
+        String code = codes.poll();
+        if (codes.size() < threshold) {
+            scheduleRefill();
+        }
+        while (code == null) { // the pool is exhausted, can't wait for the background thread
+            fill(1);
+            code = codes.poll();
+        }
+        return code;
+    }
+
+    /**
+     * Reads the pool settings and schedules an initial fill, is called once the instance is injected.
+     */
+    @Inject
+    void init() {
+        length = Math.min(SESSION_CODE_LENGTH.asInt().or(SESSION_CODE_DEFAULT_LENGTH), SESSION_CODE_MAX_LENGTH);
+        size = Math.max(SESSION_CODE_POOL_SIZE.asInt().or(SESSION_CODE_POOL_DEFAULT_SIZE), 1);
+        threshold = Math.min(SESSION_CODE_POOL_THRESHOLD.asInt().or(SESSION_CODE_POOL_DEFAULT_THRESHOLD), size);
+        scheduleRefill();
+    }
+
+    private void scheduleRefill() {
+        if (refilling.compareAndSet(false, true)) {
+            refiller.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        fill(size - codes.size());
+                    } catch (RuntimeException re) {
+                        LOG.warn("Couldn't refill the session code pool", re);
+                    } finally {
+                        refilling.set(false);
+                    }
+                }
+
+            });
+        }
+    }
+
+    private void fill(int count) {
+        if (count <= 0) {
+            return;
+        }
+        Set<String> batch = Sets.newLinkedHashSetWithExpectedSize(count);
+        while (batch.size() < count) {
+            batch.add(newCode());
+        }
+        for (Session session : ebean.find(Session.class)
+                                    .select("code")
+                                    .where().in("code", batch)
+                                    .findList()) {
+            batch.remove(session.getCode());
+        }
+        codes.addAll(batch);
+    }
+
+    /**
+     * Generates a new alphanumeric code which can be used to identify a session.
+     *
+     * @return the new code
+     */
+    private String newCode() {
+        StringBuilder code = new StringBuilder(length);
+        while (code.length() < length) {
+            if (rnd.nextBoolean()) { // append a new letter or digit?
+                char letter = (char) ('a' + rnd.nextInt(26));
+                code.append(rnd.nextBoolean() ? Character.toUpperCase(letter) : letter);
+            } else {
+                code.append(rnd.nextInt(10));
+            }
+        }
+        return code.toString();
+    }
+
+}
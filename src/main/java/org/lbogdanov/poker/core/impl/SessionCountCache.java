@@ -0,0 +1,92 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.User;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Caches numbers of sessions per author and session name filter. Counts of an author are dropped whenever the author
+ * creates or deletes a session; they also expire after a while to pick up changes made by other nodes.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+class SessionCountCache {
+
+    private static final int MAX_AUTHORS = 1000;
+    private static final long TTL_MINUTES = 5;
+
+    // author ID -> name filter -> count
+    private final Cache<Long, ConcurrentMap<String, Integer>> counts = CacheBuilder.newBuilder()
+            .maximumSize(MAX_AUTHORS)
+            .expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Returns a count supplier which looks up the cache first and runs a specified counter on a cache miss.
+     *
+     * @param author the sessions author
+     * @param name the session name filter, can be <code>null</code>
+     * @param counter the counter to run on a cache miss
+     * @return the count supplier
+     */
+    public Supplier<Integer> counter(final User author, final String name, final Supplier<Integer> counter) {
+        return new Supplier<Integer>() {
+
+            @Override
+            public Integer get() {
+                ConcurrentMap<String, Integer> authorCounts = counts.getIfPresent(author.getId());
+                if (authorCounts == null) {
+                    authorCounts = Maps.newConcurrentMap();
+                    ConcurrentMap<String, Integer> existing = counts.asMap().putIfAbsent(author.getId(), authorCounts);
+                    if (existing != null) {
+                        authorCounts = existing;
+                    }
+                }
+                String key = Strings.nullToEmpty(name);
+                Integer count = authorCounts.get(key);
+                if (count == null) {
+                    count = counter.get();
+                    authorCounts.put(key, count);
+                }
+                return count;
+            }
+
+        };
+    }
+
+    /**
+     * Drops all cached counts of a specified author.
+     *
+     * @param author the sessions author
+     */
+    public void invalidate(User author) {
+        counts.invalidate(author.getId());
+    }
+
+}
@@ -0,0 +1,327 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.Session;
+import org.lbogdanov.poker.core.User;
+
+import com.avaje.ebean.EbeanServer;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
+
+
+/**
+ * A node-local inverted index of session names per author which is used for a substring search. Names are split into
+ * trigrams, so a search only checks sessions which have all the trigrams of a search pattern. An index of an author
+ * is loaded on the first search, is kept current by the service which owns it, including changes made while it's
+ * being loaded, and expires after a while to pick up changes made by other nodes.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+class SessionNameIndex {
+
+    /**
+     * A session as seen by the index.
+     */
+    private static final class Entry {
+
+        final long id;
+        final String name;
+        final String normalized;
+        final Date created;
+
+        Entry(Session session) {
+            id = session.getId();
+            name = session.getName();
+            normalized = normalize(name);
+            created = session.getCreated();
+        }
+
+    }
+
+    /**
+     * An index of sessions of a single author.
+     */
+    private static final class AuthorIndex {
+
+        private final Map<Long, Entry> entries = Maps.newHashMap();
+        private final Map<String, Set<Entry>> trigrams = Maps.newHashMap();
+        // IDs of sessions removed while the index is loaded, so rows read before a removal aren't added back
+        private Set<Long> removedWhileLoading = Sets.newHashSet();
+
+        synchronized void load(Entry entry) {
+            if (!removedWhileLoading.contains(entry.id) && !entries.containsKey(entry.id)) {
+                add(entry);
+            }
+        }
+
+        synchronized void loaded() {
+            removedWhileLoading = null;
+        }
+
+        synchronized void add(Entry entry) {
+            removeEntry(entry.id);
+            entries.put(entry.id, entry);
+            for (String trigram : trigrams(entry.normalized)) {
+                Set<Entry> posting = trigrams.get(trigram);
+                if (posting == null) {
+                    posting = Sets.newHashSet();
+                    trigrams.put(trigram, posting);
+                }
+                posting.add(entry);
+            }
+        }
+
+        synchronized void remove(long id) {
+            if (removedWhileLoading != null) {
+                removedWhileLoading.add(id);
+            }
+            removeEntry(id);
+        }
+
+        private void removeEntry(long id) {
+            Entry entry = entries.remove(id);
+            if (entry != null) {
+                for (String trigram : trigrams(entry.normalized)) {
+                    Set<Entry> posting = trigrams.get(trigram);
+                    posting.remove(entry);
+                    if (posting.isEmpty()) {
+                        trigrams.remove(trigram);
+                    }
+                }
+            }
+        }
+
+        synchronized List<Entry> candidates(Collection<String> patternTrigrams) {
+            Collection<Entry> smallest = entries.values();
+            for (String trigram : patternTrigrams) {
+                Set<Entry> posting = trigrams.get(trigram);
+                if (posting == null) {
+                    return Collections.emptyList();
+                }
+                if (posting.size() < smallest.size()) {
+                    smallest = posting;
+                }
+            }
+            List<Entry> candidates = Lists.newArrayListWithCapacity(smallest.size());
+            outer:
+            for (Entry entry : smallest) {
+                for (String trigram : patternTrigrams) {
+                    if (!trigrams.get(trigram).contains(entry)) {
+                        continue outer;
+                    }
+                }
+                candidates.add(entry);
+            }
+            return candidates;
+        }
+
+    }
+
+    private static final int MAX_AUTHORS = 1000;
+    private static final long TTL_MINUTES = 5;
+    private static final Map<String, Comparator<Entry>> ORDERINGS = new HashMap<String, Comparator<Entry>>();
+    private static final Comparator<Entry> BY_ID = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return Longs.compare(e1.id, e2.id);
+        }
+
+    };
+
+    static {
+        ORDERINGS.put("name", new Comparator<Entry>() {
+
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                int result = String.CASE_INSENSITIVE_ORDER.compare(e1.name, e2.name); // as a database collation
+                return result != 0 ? result : BY_ID.compare(e1, e2);
+            }
+
+        });
+        ORDERINGS.put("created", new Comparator<Entry>() {
+
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                int result = e1.created.compareTo(e2.created);
+                return result != 0 ? result : BY_ID.compare(e1, e2);
+            }
+
+        });
+        ORDERINGS.put("author", BY_ID); // all sessions of an index have the same author, ties are sorted by IDs
+    }
+
+    private final Cache<Long, AuthorIndex> indexes = CacheBuilder.newBuilder()
+            .maximumSize(MAX_AUTHORS)
+            .expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES)
+            .build();
+    // author ID -> an index which is being loaded, changes made meanwhile are applied to it directly
+    private final ConcurrentMap<Long, AuthorIndex> loading = new ConcurrentHashMap<Long, AuthorIndex>();
+
+    @Inject
+    private EbeanServer ebean;
+
+    /**
+     * Finds sessions of a specified author which names contain a specified pattern, the search is case insensitive.
+     * Sessions which names start with the pattern come first, sessions within these two groups are sorted by
+     * a specified criterion.
+     *
+     * @param author the sessions author
+     * @param pattern the name pattern, <code>%</code> and <code>_</code> are wildcards
+     * @param orderBy the order by criterion
+     * @param ascending <code>true</code> for ascending sort order
+     * @return the IDs of the sessions found
+     * @throws IllegalArgumentException if the order by criterion isn't <code>name</code>, <code>created</code> or
+     *         <code>author</code>
+     */
+    public List<Long> search(User author, String pattern, String orderBy, boolean ascending) {
+        StringBuilder regex = new StringBuilder();
+        Set<String> patternTrigrams = Sets.newHashSet();
+        for (String fragment : normalize(pattern).split("(?<=[%_])|(?=[%_])")) {
+            if ("%".equals(fragment)) {
+                regex.append(".*");
+            } else if ("_".equals(fragment)) {
+                regex.append('.');
+            } else if (!fragment.isEmpty()) {
+                regex.append(Pattern.quote(fragment));
+                patternTrigrams.addAll(trigrams(fragment));
+            }
+        }
+        Matcher matcher = Pattern.compile(regex.toString(), Pattern.DOTALL).matcher("");
+
+        List<Entry> prefixed = Lists.newArrayList();
+        List<Entry> others = Lists.newArrayList();
+        for (Entry entry : get(author).candidates(patternTrigrams)) {
+            if (matcher.reset(entry.normalized).lookingAt()) {
+                prefixed.add(entry);
+            } else if (matcher.find(0)) {
+                others.add(entry);
+            }
+        }
+        Comparator<Entry> ordering = ORDERINGS.get(orderBy);
+        if (ordering == null) {
+            throw new IllegalArgumentException("Unsupported order by criterion " + orderBy);
+        }
+        if (!ascending) {
+            ordering = Collections.reverseOrder(ordering);
+        }
+        Collections.sort(prefixed, ordering);
+        Collections.sort(others, ordering);
+
+        List<Long> ids = Lists.newArrayListWithCapacity(prefixed.size() + others.size());
+        for (Entry entry : prefixed) {
+            ids.add(entry.id);
+        }
+        for (Entry entry : others) {
+            ids.add(entry.id);
+        }
+        return ids;
+    }
+
+    /**
+     * Adds a newly created session to the index of its author, if the index is loaded or is being loaded.
+     *
+     * @param session the session
+     */
+    public void add(Session session) {
+        AuthorIndex index = find(session.getAuthor().getId());
+        if (index != null) {
+            index.add(new Entry(session));
+        }
+    }
+
+    /**
+     * Removes a deleted session from the index of its author, if the index is loaded or is being loaded.
+     *
+     * @param session the session
+     */
+    public void remove(Session session) {
+        AuthorIndex index = find(session.getAuthor().getId());
+        if (index != null) {
+            index.remove(session.getId());
+        }
+    }
+
+    private AuthorIndex find(Long authorId) {
+        AuthorIndex index = indexes.getIfPresent(authorId); // the cache is checked first, see get()
+        return index != null ? index : loading.get(authorId);
+    }
+
+    private AuthorIndex get(final User author) {
+        final Long authorId = author.getId();
+        AuthorIndex index;
+        try {
+            index = indexes.get(authorId, new Callable<AuthorIndex>() {
+
+                @Override
+                public AuthorIndex call() {
+                    AuthorIndex index = new AuthorIndex();
+                    loading.put(authorId, index);
+                    try {
+                        for (Session session : ebean.find(Session.class)
+                                                    .select("name, created")
+                                                    .where().eq("author", author)
+                                                    .findList()) {
+                            index.load(new Entry(session));
+                        }
+                    } catch (RuntimeException re) {
+                        loading.remove(authorId, index);
+                        throw re;
+                    }
+                    index.loaded();
+                    return index;
+                }
+
+            });
+        } catch (ExecutionException ee) {
+            throw Throwables.propagate(ee.getCause());
+        }
+        loading.remove(authorId, index); // only once the index is in the cache, so no change can miss both
+        return index;
+    }
+
+    private static String normalize(String str) {
+        return str.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static Set<String> trigrams(String str) {
+        Set<String> trigrams = Sets.newHashSet();
+        for (int i = 0; i + 3 <= str.length(); i++) {
+            trigrams.add(str.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+}
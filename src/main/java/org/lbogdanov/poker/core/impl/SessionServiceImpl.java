@@ -15,11 +15,14 @@
  */
 package org.lbogdanov.poker.core.impl;
 
-import static org.lbogdanov.poker.core.Constants.SESSION_CODE_DEFAULT_LENGTH;
-import static org.lbogdanov.poker.util.Settings.SESSION_CODE_LENGTH;
+import static org.lbogdanov.poker.util.Settings.SESSIONS_COUNT_EXACT;
 
-import java.security.SecureRandom;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -29,8 +32,17 @@ import org.lbogdanov.poker.core.*;
 import com.avaje.ebean.EbeanServer;
 import com.avaje.ebean.ExpressionList;
 import com.avaje.ebean.Query;
+import com.avaje.ebean.TxCallable;
+import com.avaje.ebean.TxRunnable;
 import com.avaje.ebean.annotation.Transactional;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
 
 
 /**
@@ -41,20 +53,59 @@ import com.google.common.base.Strings;
 @Singleton
 public class SessionServiceImpl implements SessionService {
 
+    // sort criteria which support keyset pagination: criterion -> sort key property, sort key value
+    private static final Map<String, String> KEY_PROPERTIES = ImmutableMap.of("created", "created",
+                                                                              "name", "name",
+                                                                              "author", "author.id");
+    private static final Map<String, Function<Session, ?>> KEY_FUNCTIONS =
+            ImmutableMap.<String, Function<Session, ?>>of(
+                "created", new Function<Session, Date>() {
+
+                    @Override
+                    public Date apply(Session session) {
+                        return session.getCreated();
+                    }
+
+                },
+                "name", new Function<Session, String>() {
+
+                    @Override
+                    public String apply(Session session) {
+                        return session.getName();
+                    }
+
+                },
+                "author", new Function<Session, Long>() {
+
+                    @Override
+                    public Long apply(Session session) {
+                        return session.getAuthor().getId();
+                    }
+
+                }
+            );
+
     @Inject
     private EbeanServer ebean;
     @Inject
     private UserService userService;
+    @Inject
+    private SessionCodeIndex codeIndex;
+    @Inject
+    private SessionCodePool codePool;
+    @Inject
+    private SessionCountCache countCache;
+    @Inject
+    private SessionNameIndex nameIndex;
+    @Inject
+    private SessionCache sessionCache;
 
     /**
      * {@inheritDoc}
      */
     @Override
-    @Transactional(readOnly = true)
     public boolean exists(String code) {
-        return ebean.find(Session.class)
-                    .where().eq("code", code)
-                    .findRowCount() != 0;
+        return codeIndex.contains(code);
     }
 
     /**
@@ -63,7 +114,36 @@ public class SessionServiceImpl implements SessionService {
     @Override
     @Transactional(readOnly = true)
     public Session find(Object id) {
-        return ebean.find(Session.class, id);
+        Long key = id instanceof Number ? Long.valueOf(((Number) id).longValue()) : Longs.tryParse(String.valueOf(id));
+        Session session = key == null ? null : sessionCache.getById(key);
+        if (session == null) {
+            session = ebean.find(Session.class)
+                           .fetch("author")
+                           .where().idEq(id)
+                           .findUnique();
+            if (session != null) {
+                sessionCache.put(session);
+            }
+        }
+        return session;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Long, Session> findAll(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Long, Session> sessions = Maps.newHashMapWithExpectedSize(ids.size());
+        for (Session session : ebean.find(Session.class)
+                                    .where().idIn(new ArrayList<Long>(ids))
+                                    .findList()) {
+            sessions.put(session.getId(), session);
+        }
+        return sessions;
     }
 
     /**
@@ -72,9 +152,17 @@ public class SessionServiceImpl implements SessionService {
     @Override
     @Transactional(readOnly = true)
     public Session find(String code) {
-        return ebean.find(Session.class)
-                    .where().eq("code", code)
-                    .findUnique();
+        Session session = sessionCache.getByCode(code);
+        if (session == null) {
+            session = ebean.find(Session.class)
+                           .fetch("author")
+                           .where().eq("code", code)
+                           .findUnique();
+            if (session != null) {
+                sessionCache.put(session);
+            }
+        }
+        return session;
     }
 
     /**
@@ -84,10 +172,35 @@ public class SessionServiceImpl implements SessionService {
     @Transactional(readOnly = true)
     public PagingList<Session> find(User user, String name, String orderBy, boolean ascending, int pageSize) {
         // TODO union with sessions where the user has participated
+        if (!Strings.isNullOrEmpty(name)) {
+            List<Long> ids = nameIndex.search(user, name, orderBy, ascending);
+            return new IdPagingList<Session>(ids, pageSize, new Function<Collection<Long>, Map<Long, Session>>() {
+
+                @Override
+                public Map<Long, Session> apply(Collection<Long> pageIds) {
+                    return findAll(pageIds);
+                }
+
+            });
+        }
         Query<Session> query = ebean.find(Session.class);
         ExpressionList<Session> expr = query.where().eq("author", user);
-        if (!Strings.isNullOrEmpty(name)) {
-            expr = expr.ilike("name", name);
+        String keyProperty = KEY_PROPERTIES.get(orderBy);
+        if (keyProperty != null) {
+            final Query<Session> filtered = expr.query();
+            Optional<Supplier<Integer>> rowCounter = Optional.absent();
+            if (SESSIONS_COUNT_EXACT.asBool().or(true)) {
+                rowCounter = Optional.of(countCache.counter(user, name, new Supplier<Integer>() {
+
+                    @Override
+                    public Integer get() {
+                        return filtered.copy().findRowCount();
+                    }
+
+                }));
+            }
+            return new KeysetPagingList<Session>(filtered, keyProperty, KEY_FUNCTIONS.get(orderBy),
+                                                 ascending, pageSize, rowCounter);
         }
         query = ascending ? expr.orderBy().asc(orderBy) : expr.orderBy().desc(orderBy);
         return new EbeanPagingList<Session>(query.findPagingList(pageSize));
@@ -97,15 +210,27 @@ public class SessionServiceImpl implements SessionService {
      * {@inheritDoc}
      */
     @Override
-    @Transactional
-    public Session create(String name, String description, String estimations) {
-        Session session = new Session();
-        session.setName(name);
-        session.setDescription(description);
-        session.setEstimates(estimations);
-        session.setCode(newCode(SESSION_CODE_LENGTH.asInt().or(SESSION_CODE_DEFAULT_LENGTH)));
-        session.setAuthor(userService.getCurrentUser());
-        ebean.save(session);
+    public Session create(final String name, final String description, final String estimations) {
+        // caches are updated only after the commit, otherwise a concurrent reader could put stale state back
+        Session session = ebean.execute(new TxCallable<Session>() {
+
+            @Override
+            public Session call() {
+                Session session = new Session();
+                session.setName(name);
+                session.setDescription(description);
+                session.setEstimates(estimations);
+                session.setCode(codePool.take());
+                session.setAuthor(userService.getCurrentUser());
+                ebean.save(session);
+                return session;
+            }
+
+        });
+        codeIndex.add(session.getCode());
+        nameIndex.add(session);
+        sessionCache.put(session);
+        countCache.invalidate(session.getAuthor());
         return session;
     }
 
@@ -113,32 +238,27 @@ public class SessionServiceImpl implements SessionService {
      * {@inheritDoc}
      */
     @Override
-    @Transactional
-    public void delete(Session session) {
-        ebean.delete(session);
+    public void delete(final Session session) {
+        ebean.execute(new TxRunnable() {
+
+            @Override
+            public void run() {
+                ebean.delete(session);
+            }
+
+        });
+        sessionCache.invalidate(session);
+        codeIndex.remove(session.getCode());
+        nameIndex.remove(session);
+        countCache.invalidate(session.getAuthor());
     }
 
     /**
-     * Generates a new alphanumeric code of a specified length which can be used to uniquely identify a session.
-     * 
-     * @param length the desired code length
-     * @return the new code
+     * {@inheritDoc}
      */
-    private String newCode(int length) {
-        Random rnd = new SecureRandom();
-        StringBuilder code = new StringBuilder(length);
-        do {
-            code.setLength(0);
-            while (code.length() < length) {
-                if (rnd.nextBoolean()) { // append a new letter or digit?
-                    char letter = (char) ('a' + rnd.nextInt(26));
-                    code.append(rnd.nextBoolean() ? Character.toUpperCase(letter) : letter);
-                } else {
-                    code.append(rnd.nextInt(10));
-                }
-            }
-        } while (exists(code.toString()));
-        return code.toString();
+    @Override
+    public CacheStats getCacheStats() {
+        return sessionCache.stats();
     }
 
 }
@@ -1,5 +1,11 @@
 package org.lbogdanov.poker.core.impl;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -15,6 +21,12 @@ import org.scribe.up.profile.google2.Google2Profile;
 
 import com.avaje.ebean.EbeanServer;
 import com.avaje.ebean.annotation.Transactional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 
 /**
@@ -27,6 +39,28 @@ public class UserServiceImpl implements UserService {
 
     private static final Object USER_KEY = "USER_KEY";
 
+    private static final int MAX_USERS = 10000;
+    private static final long TTL_MINUTES = 30;
+
+    // user ID -> the principal the user is cached by, so a saved user is dropped from the cache without a scan
+    private final ConcurrentMap<Long, String> principalKeys = new ConcurrentHashMap<Long, String>();
+    // a principal of a realm -> the user
+    private final Cache<String, User> users = CacheBuilder.newBuilder()
+            .maximumSize(MAX_USERS)
+            .expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES)
+            .removalListener(new RemovalListener<String, User>() {
+
+                @Override
+                public void onRemoval(RemovalNotification<String, User> notification) {
+                    User user = notification.getValue();
+                    if (user != null && user.getId() != null) {
+                        principalKeys.remove(user.getId(), notification.getKey());
+                    }
+                }
+
+            })
+            .build();
+
     @Inject
     private EbeanServer ebean;
 
@@ -40,14 +74,17 @@ public class UserServiceImpl implements UserService {
             return null;
         } else {
             Session session = subject.getSession();
-            synchronized (session) {
-                User user = (User) session.getAttribute(USER_KEY);
-                if (user == null) {
-                    user = findOrCreateUser(subject.getPrincipals());
-                    session.setAttribute(USER_KEY, user);
+            User user = (User) session.getAttribute(USER_KEY);
+            if (user == null) { // the user is only resolved once per session, the lock isn't needed afterwards
+                synchronized (session) {
+                    user = (User) session.getAttribute(USER_KEY);
+                    if (user == null) {
+                        user = lookupUser(subject.getPrincipals());
+                        session.setAttribute(USER_KEY, user);
+                    }
                 }
-                return user;
             }
+            return user;
         }
     }
 
@@ -64,7 +101,43 @@ public class UserServiceImpl implements UserService {
      */
     @Transactional
     public void save(User user) {
-        ebean.save(user);
+        if (user.getId() == null) {
+            ebean.save(user);
+        } else { // users handed out are detached copies, Ebean would take them for new ones
+            ebean.update(user);
+        }
+        String principalKey = user.getId() == null ? null : principalKeys.get(user.getId());
+        if (principalKey != null) {
+            users.invalidate(principalKey);
+        }
+    }
+
+    /**
+     * Finds or creates a user, the user is cached by its principal. Concurrent lookups of the same user share a single
+     * database round trip. Every caller gets its own detached copy of the user, so sessions don't share a mutable
+     * instance.
+     * 
+     * @param principals the user principals
+     * @return the user
+     */
+    User lookupUser(final PrincipalCollection principals) {
+        final String principalKey = toPrincipalKey(principals);
+        try {
+            return copy(users.get(principalKey, new Callable<User>() {
+
+                @Override
+                public User call() {
+                    User user = copy(findOrCreateUser(principals));
+                    principalKeys.put(user.getId(), principalKey);
+                    return user;
+                }
+
+            }));
+        } catch (ExecutionException ee) {
+            throw Throwables.propagate(ee.getCause());
+        } catch (UncheckedExecutionException uee) {
+            throw Throwables.propagate(uee.getCause());
+        }
     }
 
     @Transactional
@@ -79,6 +152,31 @@ public class UserServiceImpl implements UserService {
         return user;
     }
 
+    /**
+     * Makes a detached copy of a user, which isn't tracked by Ebean and isn't shared.
+     */
+    private static User copy(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setFirstName(user.getFirstName());
+        copy.setLastName(user.getLastName());
+        copy.setEmail(user.getEmail());
+        copy.setExternalId(user.getExternalId());
+        return copy;
+    }
+
+    private static String toPrincipalKey(PrincipalCollection principals) {
+        Google2Profile googleProfile = principals.oneByType(Google2Profile.class);
+        if (googleProfile != null) { // Google OAuth realm
+            return "google:" + googleProfile.getId();
+        }
+        String simpleProfile = principals.oneByType(String.class);
+        if (simpleProfile != null) { // Ini realm
+            return "ini:" + simpleProfile;
+        }
+        throw new UnsupportedOperationException("Unsupported realm");
+    }
+
     private static String toExternalId(PrincipalCollection principals) {
         Google2Profile googleProfile = principals.oneByType(Google2Profile.class);
         if (googleProfile != null) { // Google OAuth realm
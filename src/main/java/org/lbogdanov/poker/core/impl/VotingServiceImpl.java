@@ -0,0 +1,96 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.Session;
+import org.lbogdanov.poker.core.VotingResult;
+import org.lbogdanov.poker.core.VotingRound;
+import org.lbogdanov.poker.core.VotingService;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+
+/**
+ * Implementation of {@link VotingService} interface. Rounds are kept in memory, a round which nobody has accessed
+ * for a while is discarded. Results of revealed rounds are stored asynchronously by {@link RoundHistory}.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class VotingServiceImpl implements VotingService {
+
+    private static final long ROUND_TTL_HOURS = 12;
+
+    private final Cache<String, VotingRound> rounds = CacheBuilder.newBuilder()
+            .expireAfterAccess(ROUND_TTL_HOURS, TimeUnit.HOURS)
+            .build();
+
+    @Inject
+    private RoundHistory history;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public VotingRound start(Session session) {
+        VotingRound round = new VotingRound(session.getDeck());
+        rounds.put(session.getCode(), round);
+        return round;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public VotingRound getRound(String code) {
+        return rounds.getIfPresent(code);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public VotingResult reveal(Session session) {
+        VotingRound round = rounds.getIfPresent(session.getCode());
+        if (round == null) {
+            return null;
+        }
+        VotingResult result;
+        boolean revealed;
+        synchronized (round) { // VotingRound.reveal() locks the round too, so the first caller is known for sure
+            revealed = round.getResult() == null;
+            result = round.reveal();
+        }
+        if (revealed) {
+            history.record(session, round, result);
+        }
+        return result;
+    }
+
+    /**
+     * Stores the results of revealed rounds which are still queued, is called when the application shuts down.
+     */
+    public void stop() {
+        history.stop();
+    }
+
+}
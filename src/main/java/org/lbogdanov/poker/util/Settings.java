@@ -36,8 +36,13 @@ import com.google.common.primitives.Longs;
  * @author Leonid Bogdanov
  */
 public enum Settings {
-    SESSION_CODE_LENGTH, DEVELOPMENT_MODE, DB_DATA_SOURCE, DB_DRIVER, DB_URL, DB_USER, DB_PASSWORD,
-    GOOGLE_OAUTH_KEY, GOOGLE_OAUTH_SECRET, ASYNC_TRANSPORT;
+    SESSION_CODE_LENGTH, SESSION_CODE_POOL_SIZE, SESSION_CODE_POOL_THRESHOLD, SESSIONS_COUNT_EXACT,
+    SESSION_CACHE_ENABLED, SESSION_CACHE_SIZE,
+    DEVELOPMENT_MODE, DB_DATA_SOURCE, DB_DRIVER, DB_URL, DB_USER, DB_PASSWORD,
+    GOOGLE_OAUTH_KEY, GOOGLE_OAUTH_SECRET, ASYNC_TRANSPORT, ASYNC_BATCH_WINDOW, ASYNC_HISTORY_SIZE,
+    ASYNC_QUEUE_LIMIT, ASYNC_SLOW_CONSUMER_POLICY, ASYNC_CHANNEL_IDLE_TIMEOUT,
+    PRESENCE_HEARTBEAT, CLUSTER_BIND_ADDRESS, CLUSTER_PORT, CLUSTER_PEERS, CLUSTER_SECRET,
+    CHAT_QUEUE_SIZE, CHAT_BATCH_SIZE, CHAT_HISTORY_SIZE;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Settings.class);
 
@@ -33,17 +33,24 @@ import org.apache.wicket.atmosphere.TrackMessageSizeFilter;
 import org.apache.wicket.guice.GuiceWebApplicationFactory;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.apache.wicket.protocol.http.WicketFilter;
-import org.atmosphere.cache.UUIDBroadcasterCache;
 import org.atmosphere.cpr.ApplicationConfig;
 import org.atmosphere.cpr.MeteorServlet;
 import org.lbogdanov.poker.core.*;
+import org.lbogdanov.poker.core.impl.ChatServiceImpl;
 import org.lbogdanov.poker.core.impl.SessionServiceImpl;
-import org.lbogdanov.poker.core.impl.UserServiceImpl;
+import org.lbogdanov.poker.core.impl.VotingServiceImpl;
 import org.lbogdanov.poker.util.Settings;
+import org.lbogdanov.poker.web.cluster.ClusterTransport;
+import org.lbogdanov.poker.web.cluster.InProcessTransport;
+import org.lbogdanov.poker.web.cluster.TcpPeerTransport;
 import org.lbogdanov.poker.web.oauth.CallbackUrlSetterFilter;
 import org.lbogdanov.poker.web.oauth.InjectableOAuthFilter;
 import org.lbogdanov.poker.web.oauth.InjectableOAuthRealm;
 import org.lbogdanov.poker.web.oauth.InjectableOAuthUserFilter;
+import org.lbogdanov.poker.web.util.MessageBroadcaster;
+import org.lbogdanov.poker.web.util.MessageSerializer;
+import org.lbogdanov.poker.web.util.RequestScopedUserService;
+import org.lbogdanov.poker.web.util.ScriptCharacterEscapes;
 import org.lbogdanov.poker.web.util.UserSerializer;
 import org.scribe.up.provider.OAuthProvider;
 import org.scribe.up.provider.impl.Google2Provider;
@@ -85,6 +92,20 @@ public class AppInitializer extends GuiceServletContextListener {
         super.contextInitialized(servletContextEvent);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void contextDestroyed(ServletContextEvent servletContextEvent) {
+        Injector injector = (Injector) servletContextEvent.getServletContext().getAttribute(Injector.class.getName());
+        if (injector != null) {
+            injector.getInstance(ClusterTransport.class).stop();
+            injector.getInstance(ChatServiceImpl.class).stop();
+            injector.getInstance(VotingServiceImpl.class).stop();
+        }
+        super.contextDestroyed(servletContextEvent);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -152,18 +173,36 @@ public class AppInitializer extends GuiceServletContextListener {
                 dbConfig.setDefaultServer(true);
                 dbConfig.addClass(Session.class);
                 dbConfig.addClass(User.class);
+                dbConfig.addClass(ChatEntry.class);
 
                 bind(EbeanServer.class).toInstance(EbeanServerFactory.create(dbConfig));
                 bind(SessionService.class).to(SessionServiceImpl.class);
-                bind(UserService.class).to(UserServiceImpl.class);
+                bind(UserService.class).to(RequestScopedUserService.class);
+                bind(ChatService.class).to(ChatServiceImpl.class);
+                bind(VotingService.class).to(VotingServiceImpl.class);
                 bind(WebApplication.class).to(PokerWebApplication.class);
                 bind(MeteorServlet.class).in(Singleton.class);
+                bind(ClusterEvents.class).to(MessageBroadcaster.class);
+                String clusterPeers = CLUSTER_PEERS.asString().orNull();
+                if (Strings.isNullOrEmpty(clusterPeers)) { // a single node
+                    bind(ClusterTransport.class).toInstance(new InProcessTransport());
+                } else {
+                    int clusterPort = CLUSTER_PORT.asInt().or(Constants.DEFAULT_CLUSTER_PORT);
+                    String bindAddress = CLUSTER_BIND_ADDRESS.asString().orNull();
+                    String secret = CLUSTER_SECRET.asString().orNull();
+                    bind(ClusterTransport.class).toInstance(new TcpPeerTransport(bindAddress, clusterPort,
+                                                                                 clusterPeers, secret));
+                }
                 bind(ObjectMapper.class).toProvider(new Provider<ObjectMapper>() {
 
                     @Override
                     public ObjectMapper get() {
-                        SimpleModule module = new SimpleModule().addSerializer(UserSerializer.get());
-                        return new ObjectMapper().registerModule(module);
+                        SimpleModule module = new SimpleModule().addSerializer(UserSerializer.get())
+                                                               .addSerializer(MessageSerializer.get());
+                        ObjectMapper mapper = new ObjectMapper().registerModule(module);
+                        // JSON is embedded into inline scripts, user text must not be able to close them
+                        mapper.getFactory().setCharacterEscapes(ScriptCharacterEscapes.get());
+                        return mapper;
                     }
 
                 }).in(Singleton.class);
@@ -173,12 +212,12 @@ public class AppInitializer extends GuiceServletContextListener {
                 params.put(ApplicationConfig.FILTER_CLASS, WicketFilter.class.getName())
                       .put(ApplicationConfig.PROPERTY_SESSION_SUPPORT, Boolean.TRUE.toString())
                       .put(ApplicationConfig.BROADCAST_FILTER_CLASSES, TrackMessageSizeFilter.class.getName())
-                      .put(ApplicationConfig.BROADCASTER_CACHE, UUIDBroadcasterCache.class.getName())
                       .put(ApplicationConfig.SHOW_SUPPORT_MESSAGE, Boolean.FALSE.toString())
                       .put(WicketFilter.FILTER_MAPPING_PARAM, "/*")
                       .put(WebApplication.CONFIGURATION, wicketConfig)
                       .put(WicketFilter.APP_FACT_PARAM, GuiceWebApplicationFactory.class.getName())
                       .put("injectorContextAttribute", Injector.class.getName()).build();
+                serve("/" + Constants.EVENTS_SERVLET_URL + "/*").with(SessionEventServlet.class);
                 serve("/*").with(MeteorServlet.class, params.build());
             }
 
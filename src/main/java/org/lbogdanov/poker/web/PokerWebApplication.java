@@ -95,6 +95,7 @@ public class PokerWebApplication extends WebApplication {
         EventBus eventBus = new EventBus(this);
         eventBus.getParameters().setTransport(AtmosphereTransport.valueOf(asyncTransport.toUpperCase(Locale.ENGLISH)));
         eventBus.addRegistrationListener(Subscriber.get());
+        Subscriber.get().start();
         new ShiroWicketPlugin() {
 
             @Override
@@ -118,4 +119,13 @@ public class PokerWebApplication extends WebApplication {
         mountPage("/sessions/", MySessionsPage.class);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onDestroy() {
+        Subscriber.get().stop();
+        super.onDestroy();
+    }
+
 }
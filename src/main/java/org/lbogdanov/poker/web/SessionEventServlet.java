@@ -0,0 +1,177 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.lbogdanov.poker.core.*;
+import org.lbogdanov.poker.web.util.ChatMessage;
+import org.lbogdanov.poker.web.util.MessageBroadcaster;
+import org.lbogdanov.poker.web.util.PresenceRoster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+
+
+/**
+ * Accepts events posted by participants of a session, e.g. chat messages, and publishes them straight to
+ * {@link MessageBroadcaster}. Unlike an Ajax behavior of a page the servlet doesn't load a page from a page store
+ * and doesn't wait for a page lock, so a busy page doesn't delay an event.
+ * <p>
+ * An event is posted to <code>/events/&lt;session code&gt;</code> with a <code>type</code> parameter and type
+ * specific parameters, the response is a JSON object:
+ * <ul>
+ *   <li><code>chat</code> with a <code>text</code> replies with a sequence number <code>seq</code> of the published
+ *       message;</li>
+ *   <li><code>vote</code> with a <code>card</code> position replies whether the vote was counted;</li>
+ *   <li><code>heartbeat</code> keeps a participant present and replies with the current position in the session
+ *       message history, <code>epoch</code> and <code>last</code>, so a page notices messages it has missed;</li>
+ *   <li><code>round</code> starts a new voting round and replies with its deck, <code>reveal</code> replies with
+ *       the result of the current round, both are only accepted from a session moderator.</li>
+ * </ul>
+ * Only Ajax requests of logged in users are accepted, cross-site forms can't set the <code>X-Requested-With</code>
+ * header.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class SessionEventServlet extends HttpServlet {
+
+    private static final String AJAX_HEADER = "X-Requested-With";
+    private static final String AJAX_HEADER_VALUE = "XMLHttpRequest";
+
+    @Inject
+    private SessionService sessionService;
+    @Inject
+    private UserService userService;
+    @Inject
+    private ChatService chatService;
+    @Inject
+    private VotingService votingService;
+    @Inject
+    private MessageBroadcaster broadcaster;
+    @Inject
+    private PresenceRoster roster;
+    @Inject
+    private ObjectMapper mapper;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        if (!AJAX_HEADER_VALUE.equals(req.getHeader(AJAX_HEADER))) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        HttpSession httpSession = req.getSession(false);
+        User user = userService.getCurrentUser();
+        if (httpSession == null || user == null) {
+            resp.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        String code = CharMatcher.is('/').trimLeadingFrom(Strings.nullToEmpty(req.getPathInfo()));
+        Session session = code.isEmpty() ? null : sessionService.find(code);
+        if (session == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Session not found");
+            return;
+        }
+        if (req.getCharacterEncoding() == null) {
+            req.setCharacterEncoding(Charsets.UTF_8.name());
+        }
+        String type = req.getParameter("type");
+        Map<String, Object> reply;
+        if ("chat".equals(type)) {
+            String text = req.getParameter("text");
+            if (Strings.isNullOrEmpty(text)) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Empty message");
+                return;
+            }
+            ChatEntry entry = chatService.post(session, text);
+            ChatMessage message = new ChatMessage(httpSession.getId(), user, entry.getMessage());
+            reply = ImmutableMap.<String, Object>of("seq", broadcaster.publish(session.getCode(), message));
+        } else if ("heartbeat".equals(type)) {
+            roster.heartbeat(session.getCode(), user, httpSession.getId());
+            reply = broadcaster.getPosition(session.getCode());
+        } else if ("vote".equals(type)) {
+            VotingRound round = votingService.getRound(session.getCode());
+            Integer card = Ints.tryParse(Strings.nullToEmpty(req.getParameter("card")));
+            if (card == null || round == null || card < 0 || card >= round.getDeck().size()) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "No such card or round");
+                return;
+            }
+            reply = ImmutableMap.<String, Object>of("voted", round.vote(user.getId(), card));
+        } else if ("round".equals(type) || "reveal".equals(type)) {
+            if (!user.equals(session.getAuthor())) { // only a moderator runs rounds
+                resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return;
+            }
+            if ("round".equals(type)) {
+                VotingRound round = votingService.start(session);
+                reply = ImmutableMap.<String, Object>of("deck", round.getDeck().getLabels());
+            } else {
+                VotingResult result = votingService.reveal(session);
+                if (result == null) {
+                    resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "No such round");
+                    return;
+                }
+                reply = toMap(result);
+            }
+        } else {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown event type");
+            return;
+        }
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding(Charsets.UTF_8.name());
+        resp.setHeader("Cache-Control", "no-cache");
+        mapper.writeValue(resp.getWriter(), reply);
+    }
+
+    private static Map<String, Object> toMap(VotingResult result) {
+        EstimateDeck deck = result.getDeck();
+        int[] counts = new int[deck.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = result.getCount(i);
+        }
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        map.put("votes", result.getVotes());
+        map.put("counts", counts);
+        map.put("min", label(deck, result.getMin()));
+        map.put("max", label(deck, result.getMax()));
+        map.put("median", label(deck, result.getMedian()));
+        map.put("mode", label(deck, result.getMode()));
+        return map;
+    }
+
+    private static String label(EstimateDeck deck, int card) {
+        return card < 0 ? null : deck.getLabel(card);
+    }
+
+}
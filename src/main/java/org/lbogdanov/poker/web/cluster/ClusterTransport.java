@@ -0,0 +1,65 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.cluster;
+
+
+/**
+ * Carries messages published to session channels between nodes of a cluster. A message is handed to a transport
+ * already encoded, and the transport delivers it once to every other node which then fans it out to its own
+ * subscribers.
+ *
+ * @author Leonid Bogdanov
+ */
+public interface ClusterTransport {
+
+    /**
+     * Receives messages published on other nodes.
+     */
+    public interface Receiver {
+
+        /**
+         * Is called for every message published on another node.
+         *
+         * @param channel the channel name, i.e. a session code
+         * @param origin the message origin identifier, can be <code>null</code>
+         * @param message the encoded message
+         */
+        public void receive(String channel, String origin, String message);
+
+    }
+
+    /**
+     * Starts the transport.
+     *
+     * @param receiver the receiver of messages published on other nodes
+     */
+    public void start(Receiver receiver);
+
+    /**
+     * Sends a message published on this node to all other nodes.
+     *
+     * @param channel the channel name, i.e. a session code
+     * @param origin the message origin identifier, can be <code>null</code>
+     * @param message the encoded message
+     */
+    public void send(String channel, String origin, String message);
+
+    /**
+     * Stops the transport and releases its resources.
+     */
+    public void stop();
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.cluster;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * A {@link ClusterTransport} which connects "nodes" living in the same JVM. A standalone instance has no peers and
+ * is used when the application runs on a single node, {@link #newPeer()} makes a cluster of several nodes for tests.
+ * Messages are delivered synchronously.
+ *
+ * @author Leonid Bogdanov
+ */
+public class InProcessTransport implements ClusterTransport {
+
+    private final List<InProcessTransport> group;
+    private volatile Receiver receiver;
+
+    /**
+     * Creates a new standalone instance of <code>InProcessTransport</code>.
+     */
+    public InProcessTransport() {
+        this(new CopyOnWriteArrayList<InProcessTransport>());
+    }
+
+    /**
+     * Creates a new transport which belongs to the same cluster as this one.
+     *
+     * @return the new transport
+     */
+    public InProcessTransport newPeer() {
+        return new InProcessTransport(group);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start(Receiver receiver) {
+        this.receiver = receiver;
+        group.add(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void send(String channel, String origin, String message) {
+        for (InProcessTransport peer : group) {
+            if (peer != this) {
+                peer.receiver.receive(channel, origin, message);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop() {
+        group.remove(this);
+    }
+
+    private InProcessTransport(List<InProcessTransport> group) {
+        this.group = group;
+    }
+
+}
@@ -0,0 +1,382 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.cluster;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * A {@link ClusterTransport} which connects nodes by a full mesh of TCP connections. Every node listens on a port and
+ * keeps one outbound connection to each of statically configured peers, a message is encoded into a frame once and
+ * the frame is queued to every peer. A peer which is down is reconnected in background, frames which don't fit into
+ * its queue meanwhile are dropped.
+ * <p>
+ * Inbound connections are only accepted from the configured peers, and if a shared secret is configured every frame
+ * is signed with HMAC-SHA256 and frames with a wrong signature close the connection. Frames are limited in length,
+ * so a peer can't make a node allocate arbitrary amounts of memory.
+ *
+ * @author Leonid Bogdanov
+ */
+public class TcpPeerTransport implements ClusterTransport {
+
+    /**
+     * An outbound connection to a peer.
+     */
+    private final class Peer implements Runnable {
+
+        final InetSocketAddress address;
+        final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<byte[]>(MAX_QUEUED_FRAMES);
+        Socket socket;
+        OutputStream out;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    byte[] frame = frames.take();
+                    try {
+                        if (socket == null) {
+                            connect();
+                        }
+                        out.write(frame);
+                        if (frames.isEmpty()) {
+                            out.flush();
+                        }
+                    } catch (IOException ioe) {
+                        LOG.warn("Couldn't send a message to a peer {}: {}", address, ioe.getMessage());
+                        disconnect();
+                        TimeUnit.MILLISECONDS.sleep(RECONNECT_DELAY);
+                    }
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } finally {
+                disconnect();
+            }
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address, CONNECT_TIMEOUT);
+            out = new BufferedOutputStream(socket.getOutputStream());
+            LOG.info("Connected to a peer {}", address);
+        }
+
+        private void disconnect() {
+            closeQuietly(socket);
+            socket = null;
+            out = null;
+        }
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpPeerTransport.class);
+    private static final int MAX_QUEUED_FRAMES = 10000;
+    private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(5);
+    private static final long RECONNECT_DELAY = TimeUnit.SECONDS.toMillis(1);
+    private static final int MAX_FRAME_LENGTH = 1 << 20;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final String bindAddress;
+    private final int port;
+    private final Mac mac;
+    private final List<Peer> peers = Lists.newArrayList();
+    private final List<String> peerHosts = Lists.newArrayList();
+    private final List<Socket> inbound = Lists.newArrayList();
+    private final ExecutorService threads = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("cluster-transport-%d")
+            .setDaemon(true)
+            .build());
+    private volatile boolean running;
+    private ServerSocket server;
+    private Receiver receiver;
+
+    /**
+     * Creates a new instance of <code>TcpPeerTransport</code>.
+     *
+     * @param bindAddress the address to listen on, <code>null</code> to listen on all addresses
+     * @param port the port to listen on
+     * @param peers the comma separated list of other nodes in the <code>host:port</code> form
+     * @param secret the secret shared by all nodes to sign frames with, <code>null</code> to not sign frames
+     */
+    public TcpPeerTransport(String bindAddress, int port, String peers, String secret) {
+        this.bindAddress = Strings.emptyToNull(bindAddress);
+        this.port = port;
+        if (Strings.isNullOrEmpty(secret)) {
+            mac = null;
+            LOG.warn("No cluster secret is set, frames from peers won't be authenticated");
+        } else {
+            try {
+                mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(new SecretKeySpec(secret.getBytes(Charsets.UTF_8), MAC_ALGORITHM));
+            } catch (GeneralSecurityException gse) {
+                throw Throwables.propagate(gse);
+            }
+        }
+        for (String peer : Splitter.on(',').trimResults().omitEmptyStrings().split(peers)) {
+            HostAndPort hostAndPort = HostAndPort.fromString(peer).withDefaultPort(port);
+            peerHosts.add(hostAndPort.getHostText());
+            this.peers.add(new Peer(new InetSocketAddress(hostAndPort.getHostText(), hostAndPort.getPort())));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void start(Receiver receiver) {
+        this.receiver = receiver;
+        try {
+            InetAddress address = bindAddress == null ? null : InetAddress.getByName(bindAddress);
+            server = new ServerSocket(port, 0, address);
+        } catch (IOException ioe) {
+            throw Throwables.propagate(ioe);
+        }
+        running = true;
+        threads.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                accept();
+            }
+
+        });
+        for (Peer peer : peers) {
+            threads.execute(peer);
+        }
+        LOG.info("Cluster transport is listening on {}:{}, {} peers",
+                 new Object[] {Objects.firstNonNull(bindAddress, "*"), port, peers.size()});
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void send(String channel, String origin, String message) {
+        byte[] frame = encode(channel, origin, message);
+        for (Peer peer : peers) {
+            if (!peer.frames.offer(frame)) {
+                LOG.warn("A queue of a peer {} is full, a message is dropped", peer.address);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException ioe) {
+                LOG.warn("Couldn't close a server socket", ioe);
+            }
+        }
+        synchronized (inbound) {
+            for (Socket socket : inbound) {
+                closeQuietly(socket);
+            }
+        }
+        threads.shutdownNow();
+    }
+
+    private void accept() {
+        while (running) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException ioe) {
+                if (running) {
+                    LOG.warn("Couldn't accept a peer connection", ioe);
+                }
+                continue;
+            }
+            if (!isPeer(socket.getInetAddress())) {
+                LOG.warn("Rejected a connection from {} which is not a peer", socket.getRemoteSocketAddress());
+                closeQuietly(socket);
+                continue;
+            }
+            synchronized (inbound) {
+                inbound.add(socket);
+            }
+            threads.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    read(socket);
+                }
+
+            });
+        }
+    }
+
+    private void read(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (running) {
+                DataInputStream frame = new DataInputStream(new ByteArrayInputStream(readFrame(in)));
+                String channel = readString(frame);
+                String origin = readString(frame);
+                String message = readString(frame);
+                try {
+                    receiver.receive(channel, origin, message);
+                } catch (RuntimeException re) {
+                    LOG.warn("Couldn't handle a message from a peer", re);
+                }
+            }
+        } catch (EOFException eofe) {
+            LOG.info("A peer {} disconnected", socket.getRemoteSocketAddress());
+        } catch (IOException ioe) {
+            if (running) {
+                LOG.warn("Couldn't read from a peer " + socket.getRemoteSocketAddress(), ioe);
+            }
+        } finally {
+            synchronized (inbound) {
+                inbound.remove(socket);
+            }
+            closeQuietly(socket);
+        }
+    }
+
+    private boolean isPeer(InetAddress address) {
+        for (String host : peerHosts) { // is resolved on every connect, so peers may change their addresses
+            try {
+                for (InetAddress peerAddress : InetAddress.getAllByName(host)) {
+                    if (peerAddress.equals(address)) {
+                        return true;
+                    }
+                }
+            } catch (IOException ioe) {
+                LOG.debug("Couldn't resolve a peer {}: {}", host, ioe.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        if (mac != null) {
+            byte[] signature = new byte[mac.getMacLength()];
+            in.readFully(signature);
+            if (!MessageDigest.isEqual(signature, sign(frame))) {
+                throw new IOException("Invalid frame signature");
+            }
+        }
+        return frame;
+    }
+
+    private byte[] sign(byte[] frame) {
+        Mac frameMac;
+        try {
+            frameMac = (Mac) mac.clone(); // Mac isn't thread safe, frames are signed and checked by many threads
+        } catch (CloneNotSupportedException cnse) {
+            throw Throwables.propagate(cnse);
+        }
+        return frameMac.doFinal(frame);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // nothing can be done about it
+            }
+        }
+    }
+
+    private byte[] encode(String channel, String origin, String message) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(message.length() + 64);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(message.length() + 128);
+        try {
+            DataOutputStream out = new DataOutputStream(body);
+            writeString(out, channel);
+            writeString(out, origin);
+            writeString(out, message);
+            out = new DataOutputStream(frame);
+            out.writeInt(body.size());
+            body.writeTo(out);
+            if (mac != null) {
+                out.write(sign(body.toByteArray()));
+            }
+        } catch (IOException ioe) {
+            throw Throwables.propagate(ioe); // never happens for an in-memory stream
+        }
+        return frame.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = str.getBytes(Charsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        } else if (length > in.available()) { // is read from a frame which is already in memory
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+}
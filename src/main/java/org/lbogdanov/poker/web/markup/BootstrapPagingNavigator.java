@@ -2,9 +2,11 @@ package org.lbogdanov.poker.web.markup;
 
 import static org.apache.wicket.AttributeModifier.append;
 
+import org.apache.wicket.Component;
 import org.apache.wicket.ajax.markup.html.navigation.paging.AjaxPagingNavigation;
 import org.apache.wicket.ajax.markup.html.navigation.paging.AjaxPagingNavigator;
 import org.apache.wicket.behavior.AttributeAppender;
+import org.apache.wicket.behavior.Behavior;
 import org.apache.wicket.markup.html.TransparentWebMarkupContainer;
 import org.apache.wicket.markup.html.list.LoopItem;
 import org.apache.wicket.markup.html.navigation.paging.*;
@@ -40,12 +42,31 @@ public class BootstrapPagingNavigator extends AjaxPagingNavigator {
         prev.setAutoEnable(false);
         next.setAutoEnable(false);
 
+        Behavior lastVisibilityManager = new Behavior() {
+
+            @Override
+            public void onConfigure(Component component) {
+                component.setVisible(isPageCountExact());
+            }
+
+        };
+        last.add(lastVisibilityManager);
+
         add(new TransparentWebMarkupContainer("firstParent").add(activeAppender(first)),
-            new TransparentWebMarkupContainer("lastParent").add(activeAppender(last)),
+            new TransparentWebMarkupContainer("lastParent").add(activeAppender(last), lastVisibilityManager),
             new TransparentWebMarkupContainer("prevParent").add(activeAppender(prev)),
             new TransparentWebMarkupContainer("nextParent").add(activeAppender(next)));
     }
 
+    /**
+     * Checks whether a page count of the pageable is exact. If it is just an estimate, the "last" link is hidden.
+     * 
+     * @return <code>true</code> if the page count is exact
+     */
+    protected boolean isPageCountExact() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -39,7 +39,7 @@ import org.apache.wicket.util.io.IClusterable;
 import org.apache.wicket.validation.IValidatable;
 import org.apache.wicket.validation.IValidator;
 import org.apache.wicket.validation.ValidationError;
-import org.lbogdanov.poker.core.Duration;
+import org.lbogdanov.poker.core.EstimateDeck;
 import org.lbogdanov.poker.core.SessionService;
 import org.lbogdanov.poker.core.UserService;
 import org.lbogdanov.poker.web.markup.BootstrapFeedbackPanel;
@@ -180,7 +180,7 @@ public class IndexPage extends AbstractPage {
             @Override
             public void validate(IValidatable<String> validatable) {
                 try {
-                    Duration.parse(validatable.getValue());
+                    EstimateDeck.of(validatable.getValue()); // compiles the deck the new session will use
                 } catch (IllegalArgumentException e) {
                     ValidationError error = new ValidationError();
                     error.addKey("session.create.estimates.invalidEstimate").setVariable("estimate", e.getMessage());
@@ -18,12 +18,17 @@ package org.lbogdanov.poker.web.page;
 import java.text.DateFormat;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 
 import org.apache.shiro.authz.annotation.RequiresUser;
+import org.apache.wicket.MetaDataKey;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.attributes.AjaxCallListener;
 import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
@@ -47,10 +52,12 @@ import org.apache.wicket.markup.html.form.DropDownChoice;
 import org.apache.wicket.markup.html.form.TextField;
 import org.apache.wicket.markup.html.link.BookmarkablePageLink;
 import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.html.navigation.paging.IPageable;
 import org.apache.wicket.markup.html.navigation.paging.PagingNavigator;
 import org.apache.wicket.markup.html.panel.Fragment;
 import org.apache.wicket.markup.repeater.Item;
 import org.apache.wicket.model.*;
+import org.apache.wicket.request.cycle.RequestCycle;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.CssResourceReference;
 import org.apache.wicket.request.resource.ResourceReference;
@@ -79,14 +86,17 @@ public class MySessionsPage extends AbstractPage {
 
         private transient PagingList<Session> data;
         private String sessionName;
+        private long page;
+        private final Set<Long> rowIds = new HashSet<Long>();
 
         @Override
         public Iterator<? extends Session> iterator(long first, long count) {
             if (data == null) {
                 data = load();
             }
-            int page = (int) (first / data.getPageSize());
-            return Iterators.limit(data.getPage(page).iterator(), (int) count);
+            rowIds.clear();
+            page = first / data.getPageSize();
+            return Iterators.limit(data.getPage((int) page).iterator(), (int) count);
         }
 
         @Override
@@ -94,17 +104,28 @@ public class MySessionsPage extends AbstractPage {
             if (data == null) {
                 data = load();
             }
+            if (!data.isTotalRowCountExact()) { // the estimate must account for the page about to be rendered
+                data.getPage((int) page);
+            }
             return data.getTotalRowCount();
         }
 
+        public boolean isSizeExact() {
+            if (data == null) {
+                data = load();
+            }
+            return data.isTotalRowCountExact();
+        }
+
         @Override
         public IModel<Session> model(Session object) {
             final Long id = object.getId();
+            rowIds.add(id);
             return new LoadableDetachableModel<Session>(object) {
 
                 @Override
                 protected Session load() {
-                    return sessionService.find(id);
+                    return loadRow(id);
                 }
 
             };
@@ -114,6 +135,10 @@ public class MySessionsPage extends AbstractPage {
             data = null;
         }
 
+        public void setPage(long page) {
+            this.page = page;
+        }
+
         public String getSessionName() {
             return sessionName;
         }
@@ -122,6 +147,29 @@ public class MySessionsPage extends AbstractPage {
             this.sessionName = name;
         }
 
+        /**
+         * Loads a row of the table. The first row loaded within a request loads all the rows of the table
+         * by a single query, the rest is taken from the current <code>RequestCycle</code>.
+         */
+        private Session loadRow(Long id) {
+            RequestCycle requestCycle = RequestCycle.get();
+            HashMap<Long, Session> rows = requestCycle.getMetaData(ROWS);
+            if (rows == null) {
+                rows = new HashMap<Long, Session>();
+                requestCycle.setMetaData(ROWS, rows);
+            }
+            if (!rows.containsKey(id)) {
+                Set<Long> ids = new HashSet<Long>(rowIds);
+                ids.add(id);
+                ids.removeAll(rows.keySet());
+                Map<Long, Session> loaded = sessionService.findAll(ids);
+                for (Long rowId : ids) {
+                    rows.put(rowId, loaded.get(rowId)); // null for deleted sessions, so they aren't reloaded
+                }
+            }
+            return rows.get(id);
+        }
+
         private PagingList<Session> load() {
             SortParam<String> sort = getSort();
             return sessionService.find(userService.getCurrentUser(), getSessionName(), sort.getProperty(),
@@ -149,6 +197,7 @@ public class MySessionsPage extends AbstractPage {
     private static final ResourceReference CSS = new CssResourceReference(MySessionsPage.class, "mysessions.css");
     private static final ResourceReference JS = new PageScriptResourceReference(MySessionsPage.class, "mysessions.js");
     private static final List<Long> ITEMS_PER_PAGE = Arrays.asList(10L, 50L, 100L);
+    private static final MetaDataKey<HashMap<Long, Session>> ROWS = new MetaDataKey<HashMap<Long, Session>>() {};
 
     @Inject
     private SessionService sessionService;
@@ -240,6 +289,7 @@ public class MySessionsPage extends AbstractPage {
                     @Override
                     protected void onSortChanged() {
                         dataProvider.invalidate();
+                        dataProvider.setPage(0);
                         getTable().setCurrentPage(0);
                     }
 
@@ -251,13 +301,37 @@ public class MySessionsPage extends AbstractPage {
 
             @Override
             protected PagingNavigator newPagingNavigator(String navigatorId, final DataTable<?, ?> table) {
-                return new BootstrapPagingNavigator(navigatorId, table) {
+                IPageable pageable = new IPageable() { // lets the data provider know a page to be rendered
+
+                    @Override
+                    public long getCurrentPage() {
+                        return table.getCurrentPage();
+                    }
+
+                    @Override
+                    public void setCurrentPage(long page) {
+                        dataProvider.setPage(page);
+                        table.setCurrentPage(page);
+                    }
+
+                    @Override
+                    public long getPageCount() {
+                        return table.getPageCount();
+                    }
+
+                };
+                return new BootstrapPagingNavigator(navigatorId, pageable) {
 
                     @Override
                     protected void onAjaxEvent(AjaxRequestTarget target) {
                         target.add(table);
                     }
 
+                    @Override
+                    protected boolean isPageCountExact() {
+                        return dataProvider.isSizeExact();
+                    }
+
                 };
             }
 
@@ -271,6 +345,8 @@ public class MySessionsPage extends AbstractPage {
             @Override
             protected void onUpdate(AjaxRequestTarget target) {
                 dataProvider.invalidate();
+                dataProvider.setPage(0);
+                sessionsTable.setCurrentPage(0);
                 target.add(sessionsTable);
             }
 
@@ -292,6 +368,8 @@ public class MySessionsPage extends AbstractPage {
             @Override
             protected void onUpdate(AjaxRequestTarget target) {
                 dataProvider.invalidate();
+                dataProvider.setPage(0);
+                sessionsTable.setCurrentPage(0);
                 target.add(sessionsTable);
             }
 
@@ -16,12 +16,26 @@
 package org.lbogdanov.poker.web.page;
 
 import static org.atmosphere.cpr.FrameworkConfig.ATMOSPHERE_RESOURCE;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_ASYNC_CHANNEL_IDLE_TIMEOUT;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_CHAT_HISTORY_SIZE;
+import static org.lbogdanov.poker.core.Constants.EVENTS_SERVLET_URL;
 import static org.lbogdanov.poker.core.Constants.LABEL_MAX_LENGTH;
+import static org.lbogdanov.poker.util.Settings.ASYNC_CHANNEL_IDLE_TIMEOUT;
+import static org.lbogdanov.poker.util.Settings.CHAT_HISTORY_SIZE;
 
 import java.text.DateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
@@ -30,18 +44,21 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.shiro.authz.annotation.RequiresUser;
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.Page;
+import org.apache.wicket.ajax.AbstractDefaultAjaxBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.attributes.AjaxCallListener;
 import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
-import org.apache.wicket.ajax.markup.html.form.AjaxFallbackButton;
-import org.apache.wicket.atmosphere.EventBus;
+import org.apache.wicket.ajax.attributes.CallbackParameter;
 import org.apache.wicket.atmosphere.ResourceRegistrationListener;
 import org.apache.wicket.atmosphere.Subscribe;
 import org.apache.wicket.markup.head.IHeaderResponse;
 import org.apache.wicket.markup.head.JavaScriptHeaderItem;
+import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
+import org.apache.wicket.markup.html.form.Button;
 import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.form.TextArea;
 import org.apache.wicket.model.Model;
+import org.apache.wicket.request.IRequestParameters;
 import org.apache.wicket.request.http.flow.AbortWithHttpErrorCodeException;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.CssResourceReference;
@@ -49,23 +66,36 @@ import org.apache.wicket.request.resource.ResourceReference;
 import org.atmosphere.cpr.AtmosphereResource;
 import org.atmosphere.cpr.Broadcaster;
 import org.atmosphere.cpr.BroadcasterFactory;
+import org.lbogdanov.poker.core.ChatEntry;
+import org.lbogdanov.poker.core.ChatService;
 import org.lbogdanov.poker.core.Session;
 import org.lbogdanov.poker.core.SessionService;
-import org.lbogdanov.poker.core.UserService;
+import org.lbogdanov.poker.web.SessionEventServlet;
 import org.lbogdanov.poker.web.markup.BodylessLabel;
 import org.lbogdanov.poker.web.markup.LimitableLabel;
 import org.lbogdanov.poker.web.plugin.CustomScrollbarPlugin;
 import org.lbogdanov.poker.web.util.ChatMessage;
+import org.lbogdanov.poker.web.util.JoinMessage;
 import org.lbogdanov.poker.web.util.Message;
+import org.lbogdanov.poker.web.util.MessageBroadcaster;
 import org.lbogdanov.poker.web.util.OriginFilter;
+import org.lbogdanov.poker.web.util.PresenceRoster;
+import org.lbogdanov.poker.web.util.UserSerializer;
 import org.ocpsoft.prettytime.Duration;
 import org.ocpsoft.prettytime.PrettyTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 
 /**
@@ -78,11 +108,23 @@ public class SessionPage extends AbstractPage {
 
     /**
      * Subscribes clients to corresponding named {@link Broadcaster}s depending on the current <code>Session</code> code.
+     * Unsubscribes clients which have gone and destroys <code>Broadcaster</code>s which have had no clients for
+     * a configured period of time.
      */
     public static final class Subscriber implements ResourceRegistrationListener {
 
         private static final Subscriber INSTANCE = new Subscriber();
 
+        // resource UUID -> channel
+        private final ConcurrentMap<String, String> resources = new ConcurrentHashMap<String, String>();
+        // channel -> when the channel was first seen without resources, 0 for a channel in use
+        private final ConcurrentMap<String, Long> channels = new ConcurrentHashMap<String, Long>();
+        // registration and destruction of a channel's Broadcaster are mutually exclusive
+        private final Striped<Lock> channelLocks = Striped.lock(64);
+        // resources which the previous sweep didn't find in any Broadcaster, only accessed by the sweeper
+        private Set<String> suspects = Collections.emptySet();
+        private ScheduledExecutorService sweeper;
+
         /**
          * Returns a single instance of <code>Subscriber</code>.
          * 
@@ -103,8 +145,19 @@ public class SessionPage extends AbstractPage {
                 HttpServletRequest request = (HttpServletRequest) page.getRequest().getContainerRequest();
                 AtmosphereResource resource = (AtmosphereResource) request.getAttribute(ATMOSPHERE_RESOURCE);
                 if (resource != null) {
-                    Broadcaster broadcaster = BroadcasterFactory.getDefault().lookup(channel, true);
-                    broadcaster.addAtmosphereResource(resource);
+                    resources.put(uuid, channel);
+                    Lock lock = channelLocks.get(channel);
+                    lock.lock();
+                    try {
+                        Broadcaster broadcaster;
+                        do { // a Broadcaster may also be destroyed by Atmosphere itself, then a new one is created
+                            channels.put(channel, 0L);
+                            broadcaster = BroadcasterFactory.getDefault().lookup(channel, true);
+                            broadcaster.addAtmosphereResource(resource);
+                        } while (broadcaster.isDestroyed());
+                    } finally {
+                        lock.unlock();
+                    }
                 } else {
                     LOG.warn("Couldn't get AtmosphereResource for a request");
                 }
@@ -115,7 +168,132 @@ public class SessionPage extends AbstractPage {
          * {@inheritDoc}
          */
         @Override
-        public void resourceUnregistered(String uuid) {}
+        public void resourceUnregistered(String uuid) {
+            String channel = resources.remove(uuid);
+            Broadcaster broadcaster = channel == null ? null : BroadcasterFactory.getDefault().lookup(channel);
+            if (broadcaster != null) {
+                for (AtmosphereResource resource : broadcaster.getAtmosphereResources()) {
+                    if (uuid.equals(resource.uuid())) {
+                        broadcaster.removeAtmosphereResource(resource);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the number of channels which have <code>Broadcaster</code>s on this node.
+         * 
+         * @return the number of channels
+         */
+        public int getChannelCount() {
+            return channels.size();
+        }
+
+        /**
+         * Returns the number of clients subscribed to channels on this node.
+         * 
+         * @return the number of clients
+         */
+        public int getResourceCount() {
+            return resources.size();
+        }
+
+        /**
+         * Starts periodic destruction of idle <code>Broadcaster</code>s.
+         */
+        public synchronized void start() {
+            if (sweeper == null) {
+                final long idleTimeout = TimeUnit.SECONDS.toMillis(
+                        Math.max(ASYNC_CHANNEL_IDLE_TIMEOUT.asInt().or(DEFAULT_ASYNC_CHANNEL_IDLE_TIMEOUT), 1));
+                sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("channel-sweeper")
+                        .setDaemon(true)
+                        .build());
+                sweeper.scheduleWithFixedDelay(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            sweep(idleTimeout);
+                        } catch (RuntimeException re) {
+                            LOG.warn("Couldn't destroy idle Broadcasters", re);
+                        }
+                    }
+
+                }, idleTimeout / 2, idleTimeout / 2, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Stops periodic destruction of idle <code>Broadcaster</code>s.
+         */
+        public synchronized void stop() {
+            if (sweeper != null) {
+                sweeper.shutdownNow();
+                sweeper = null;
+            }
+        }
+
+        private void sweep(long idleTimeout) {
+            long now = System.currentTimeMillis();
+            Set<String> live = Sets.newHashSet();
+            for (Map.Entry<String, Long> entry : channels.entrySet()) {
+                String channel = entry.getKey();
+                Broadcaster broadcaster = BroadcasterFactory.getDefault().lookup(channel);
+                if (broadcaster == null || broadcaster.isDestroyed()) {
+                    forget(channel);
+                } else if (!broadcaster.getAtmosphereResources().isEmpty()) {
+                    entry.setValue(0L);
+                    for (AtmosphereResource resource : broadcaster.getAtmosphereResources()) {
+                        live.add(resource.uuid());
+                    }
+                } else if (entry.getValue() == 0L) {
+                    channels.replace(channel, 0L, now);
+                } else if (now - entry.getValue() >= idleTimeout) {
+                    destroyIdle(channel, entry.getValue(), broadcaster);
+                }
+            }
+            // resources which have gone without being unregistered, a resource is only dropped if the previous
+            // sweep didn't find it either, as it might have been registered after its Broadcaster was checked
+            Set<String> missing = Sets.newHashSet();
+            for (String uuid : resources.keySet()) {
+                if (!live.contains(uuid)) {
+                    if (suspects.contains(uuid)) {
+                        resources.remove(uuid);
+                    } else {
+                        missing.add(uuid);
+                    }
+                }
+            }
+            suspects = missing;
+            LOG.debug("{} channels, {} resources", channels.size(), resources.size());
+        }
+
+        private void forget(String channel) {
+            Lock lock = channelLocks.get(channel);
+            lock.lock();
+            try { // the channel may have got a new Broadcaster since it was checked
+                Broadcaster broadcaster = BroadcasterFactory.getDefault().lookup(channel);
+                if (broadcaster == null || broadcaster.isDestroyed()) {
+                    channels.remove(channel);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void destroyIdle(String channel, Long idleSince, Broadcaster broadcaster) {
+            Lock lock = channelLocks.get(channel);
+            lock.lock();
+            try { // a resource registered since the channel was checked resets the idle time
+                if (broadcaster.getAtmosphereResources().isEmpty() && channels.remove(channel, idleSince)) {
+                    broadcaster.destroy();
+                    LOG.debug("Destroyed an idle Broadcaster for a channel {}", channel);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
 
         private Subscriber() {}
 
@@ -128,10 +306,15 @@ public class SessionPage extends AbstractPage {
     @Inject
     private SessionService sessionService;
     @Inject
-    private UserService userService;
+    private MessageBroadcaster broadcaster;
+    @Inject
+    private PresenceRoster roster;
+    @Inject
+    private ChatService chatService;
     @Inject
     private ObjectMapper mapper;
     private Session session;
+    private AbstractDefaultAjaxBehavior resync;
 
     /**
      * Creates a new instance of <code>Session</code> page.
@@ -144,26 +327,41 @@ public class SessionPage extends AbstractPage {
 
         final TextArea<String> chatMsg = new TextArea<String>("chatMsg", Model.of(""));
         Form<?> chatForm = new Form<Void>("chatForm");
-        chatForm.add(chatMsg, new AjaxFallbackButton("chatSend", chatForm) {
+        chatForm.add(chatMsg, new Button("chatSend") {
 
+            /**
+             * Is only called without JavaScript, otherwise messages are posted to {@link SessionEventServlet}.
+             */
             @Override
-            protected void onSubmit(AjaxRequestTarget target, Form<?> form) {
-                ChatMessage message = new ChatMessage(getSession().getId(), userService.getCurrentUser(),
-                                                      chatMsg.getModelObject());
-                post(session.getCode(), message);
+            public void onSubmit() {
+                ChatEntry entry = chatService.post(session, chatMsg.getModelObject());
+                ChatMessage message = new ChatMessage(getSession().getId(), entry.getAuthor(), entry.getMessage());
+                broadcaster.publish(session.getCode(), message);
+                chatMsg.setModelObject("");
+            }
+
+        });
+
+        resync = new AbstractDefaultAjaxBehavior() {
+
+            @Override
+            protected void respond(AjaxRequestTarget target) {
+                IRequestParameters params = getRequest().getRequestParameters();
+                String epoch = params.getParameterValue("epoch").toString("");
+                long after = params.getParameterValue("after").toLong(0);
+                target.appendJavaScript(broadcaster.toResyncScript(session.getCode(), epoch, after,
+                                                                   getSession().getId()));
+                target.appendJavaScript("Poker.resynced();");
             }
 
             @Override
             protected void updateAjaxAttributes(AjaxRequestAttributes attributes) {
                 super.updateAjaxAttributes(attributes);
-                AjaxCallListener listener = new AjaxCallListener();
-                listener.onPrecondition("return $('#chatMsg').val().length > 0;")
-                        .onBeforeSend("Poker.toggleForm('chatForm', true);")
-                        .onComplete("Poker.msgSent(jqXHR); Poker.toggleForm('chatForm', false);");
-                attributes.getAjaxCallListeners().add(listener);
+                attributes.getAjaxCallListeners().add(new AjaxCallListener().onFailure("Poker.resyncFailed();"));
             }
 
-        });
+        };
+        add(resync);
 
         LimitableLabel name = new LimitableLabel("session.name", session.getName());
         if (!Strings.isNullOrEmpty(session.getDescription())) {
@@ -185,10 +383,36 @@ public class SessionPage extends AbstractPage {
         super.renderHead(response);
         response.render(JavaScriptHeaderItem.forReference(I18N));
         response.render(JavaScriptHeaderItem.forReference(CustomScrollbarPlugin.get()));
+        CharSequence resyncFunction = resync.getCallbackFunction(CallbackParameter.explicit("epoch"),
+                                                                 CallbackParameter.explicit("after"));
+        String eventsUrl = getRequestCycle().getUrlRenderer()
+                                            .renderContextRelativeUrl(EVENTS_SERVLET_URL + "/" + session.getCode());
+        String script = String.format("Poker.setEventsUrl('%s'); Poker.setResync(%s); Poker.setHeartbeat(%d); %s",
+                                      eventsUrl, resyncFunction, roster.getHeartbeatInterval(),
+                                      broadcaster.toSyncScript(session.getCode()));
+        response.render(OnDomReadyHeaderItem.forScript(script));
+        int historySize = CHAT_HISTORY_SIZE.asInt().or(DEFAULT_CHAT_HISTORY_SIZE);
+        List<ChatMessage> chatHistory = Lists.newArrayList();
+        Map<Long, String> names = Maps.newHashMap(); // messages refer to authors by IDs, so names are sent once
+        for (ChatEntry entry : chatService.findRecent(session, historySize)) {
+            chatHistory.add(new ChatMessage(null, entry.getAuthor(), entry.getMessage()));
+            names.put(entry.getAuthor().getId(), UserSerializer.get().convertToString(entry.getAuthor(), null));
+        }
+        try {
+            response.render(OnDomReadyHeaderItem.forScript(String.format("Poker.setNames(%s); %s",
+                                                                         mapper.writeValueAsString(names),
+                                                                         broadcaster.toScript(chatHistory))));
+        } catch (JsonProcessingException jpe) {
+            throw Throwables.propagate(jpe);
+        }
+        List<JoinMessage> participants = roster.getParticipants(session.getCode());
+        response.render(OnDomReadyHeaderItem.forScript(broadcaster.toScript(participants)));
     }
 
     /**
-     * Asynchronously publishes messages to the session participants via Atmosphere framework.
+     * Delivers messages posted to this page via Wicket <code>EventBus</code>. Session-wide messages are published by
+     * {@link MessageBroadcaster} which doesn't involve this method, the method also makes Wicket keep an Atmosphere
+     * connection for this page.
      * 
      * @param target the <code>AjaxRequestTarget</code> instance
      * @param msg the message to publish
@@ -199,7 +423,7 @@ public class SessionPage extends AbstractPage {
         if (target == null) {
             LOG.warn("Couldn't sent async message, target was null");
         } else {
-            target.appendJavaScript(String.format("Poker.dispatch(%s);", mapper.writeValueAsString(msg)));
+            target.appendJavaScript(broadcaster.toScript(msg));
         }
     }
 
@@ -219,18 +443,6 @@ public class SessionPage extends AbstractPage {
         return JS;
     }
 
-    private static void post(Object channel, Message<?> message) {
-        Broadcaster broadcaster = BroadcasterFactory.getDefault().lookup(channel);
-        if (broadcaster == null) {
-            LOG.info("No active Broadcaster for a channel {}", channel);
-        } else {
-            EventBus eventBus = EventBus.get();
-            for (AtmosphereResource resource : broadcaster.getAtmosphereResources()) {
-                eventBus.post(message, resource);
-            }
-        }
-    }
-
     private String formatDate(Date created) {
         final long MILLIS_PER_WEEK = TimeUnit.DAYS.toMillis(7);
         Locale locale = getLocale();
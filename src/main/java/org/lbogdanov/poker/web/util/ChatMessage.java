@@ -17,17 +17,16 @@ package org.lbogdanov.poker.web.util;
 
 import org.lbogdanov.poker.core.User;
 
-import com.fasterxml.jackson.annotation.JsonTypeName;
-
 
 /**
  * Represents a chat message.
  * 
  * @author Leonid Bogdanov
  */
-@JsonTypeName("chatMsg")
 public final class ChatMessage extends Message<String> {
 
+    public static final int TYPE_CODE = 1;
+
     public final User author;
 
     /**
@@ -42,4 +41,20 @@ public final class ChatMessage extends Message<String> {
         this.author = author;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTypeCode() {
+        return TYPE_CODE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Long getParticipantId() {
+        return author.getId();
+    }
+
 }
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+
+/**
+ * Tells that a participant has left a session.
+ * 
+ * @author Leonid Bogdanov
+ */
+public final class LeaveMessage extends Message<Void> {
+
+    public static final int TYPE_CODE = 3;
+
+    public final Long id;
+
+    /**
+     * Creates a new instance of the <code>LeaveMessage</code> class.
+     * 
+     * @param origin the message origin identifier
+     * @param id the participant user ID
+     */
+    public LeaveMessage(Object origin, Long id) {
+        super(origin, null);
+        this.id = id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTypeCode() {
+        return TYPE_CODE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Long getParticipantId() {
+        return id;
+    }
+
+}
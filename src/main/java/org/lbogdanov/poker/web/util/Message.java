@@ -17,21 +17,14 @@ package org.lbogdanov.poker.web.util;
 
 import org.apache.wicket.util.io.IClusterable;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.annotation.JsonTypeInfo;
-import com.fasterxml.jackson.annotation.JsonTypeInfo.As;
-import com.fasterxml.jackson.annotation.JsonTypeInfo.Id;
-
 
 /**
- * A base class for all messages sent via Atmosphere framework.
+ * A base class for all messages sent via Atmosphere framework. Messages are encoded by {@link MessageSerializer}.
  * 
  * @author Leonid Bogdanov
  */
-@JsonTypeInfo(use = Id.NAME, include = As.PROPERTY, property = "type")
 public abstract class Message<T> implements IClusterable {
 
-    @JsonIgnore
     public final Object origin;
     public final T message;
 
@@ -46,4 +39,18 @@ public abstract class Message<T> implements IClusterable {
         this.message = message;
     }
 
+    /**
+     * Returns a short numeric code which tells a client the type of the message.
+     * 
+     * @return the type code
+     */
+    public abstract int getTypeCode();
+
+    /**
+     * Returns an ID of a participant the message is about, e.g. its author.
+     * 
+     * @return the participant user ID
+     */
+    public abstract Long getParticipantId();
+
 }
@@ -0,0 +1,523 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import static org.lbogdanov.poker.core.Constants.DEFAULT_ASYNC_BATCH_WINDOW;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_ASYNC_HISTORY_SIZE;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_ASYNC_QUEUE_LIMIT;
+import static org.lbogdanov.poker.util.Settings.ASYNC_BATCH_WINDOW;
+import static org.lbogdanov.poker.util.Settings.ASYNC_HISTORY_SIZE;
+import static org.lbogdanov.poker.util.Settings.ASYNC_QUEUE_LIMIT;
+import static org.lbogdanov.poker.util.Settings.ASYNC_SLOW_CONSUMER_POLICY;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpSession;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.BroadcasterFactory;
+import org.lbogdanov.poker.core.ClusterEvents;
+import org.lbogdanov.poker.web.cluster.ClusterTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * Publishes messages to all participants of a session via Atmosphere framework. Messages posted to a channel within
+ * a short window are collected into a batch, and the batch is encoded only once into a Wicket Ajax response which is
+ * then written as is to every <code>AtmosphereResource</code> of the channel. So the cost of a message doesn't depend
+ * on the number of participants and a busy channel produces one push per window rather than one push per message,
+ * which matters for the long polling transport. Messages are not sent back to the HTTP session they originate from.
+ * <p>
+ * Every message gets a sequence number and the last messages of a channel are kept in a {@link MessageHistory}, so
+ * a client which notices a gap in the numbers, e.g. after a reconnect, asks for the missed messages only.
+ * <p>
+ * A resource which has too many writes pending is a slow consumer, it either misses responses until it catches up
+ * or is disconnected, so it can't hold up memory and other participants.
+ * <p>
+ * Every published message is also handed to a {@link ClusterTransport} once, so other nodes of a cluster deliver it
+ * to participants connected to them. The transport also carries {@link ClusterEvents} on reserved channels which
+ * are never delivered to participants.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class MessageBroadcaster implements ClusterEvents {
+
+    /**
+     * Messages posted to a channel within the current window.
+     */
+    private static final class Batch {
+
+        final MessageHistory history;
+        final List<MessageHistory.Entry> entries = Lists.newArrayList();
+        boolean closed;
+
+        Batch(MessageHistory history) {
+            this.history = history;
+        }
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageBroadcaster.class);
+    private static final String RESPONSE_START =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?><ajax-response><evaluate><![CDATA[";
+    private static final String RESPONSE_END = "]]></evaluate></ajax-response>";
+    private static final long HISTORY_TTL_HOURS = 12;
+    private static final long PENDING_WRITES_TTL_MINUTES = 10;
+    private static final long SLOW_CONSUMERS_LOG_MINUTES = 5;
+    // session codes are alphanumeric, so channels of cluster events never clash with session channels
+    private static final String EVENTS_CHANNEL_PREFIX = "!";
+
+    private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<String, Batch>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("message-broadcaster").setDaemon(true).build());
+    // resource UUID -> writes to the resource which may be still pending, is only accessed by the flusher thread
+    private final LoadingCache<String, Deque<Future<?>>> pendingWrites = CacheBuilder.newBuilder()
+            .expireAfterAccess(PENDING_WRITES_TTL_MINUTES, TimeUnit.MINUTES)
+            .build(new CacheLoader<String, Deque<Future<?>>>() {
+
+                @Override
+                public Deque<Future<?>> load(String uuid) {
+                    return new ArrayDeque<Future<?>>();
+                }
+
+            });
+    private final ConcurrentMap<String, List<ClusterEvents.Listener>> eventListeners =
+            new ConcurrentHashMap<String, List<ClusterEvents.Listener>>();
+    private final AtomicLong droppedResponses = new AtomicLong();
+    private final AtomicLong disconnectedConsumers = new AtomicLong();
+    private long window;
+    private int maxPendingWrites;
+    private boolean disconnectSlowConsumers;
+    private LoadingCache<String, MessageHistory> histories;
+
+    @Inject
+    private ObjectMapper mapper;
+    @Inject
+    private ClusterTransport transport;
+
+    /**
+     * Publishes a message to all participants of a specified channel except the message originator. The message is
+     * sent once the current batching window of the channel ends.
+     *
+     * @param channel the channel name, i.e. a session code
+     * @param message the message to publish
+     * @return the sequence number of the message
+     */
+    public long publish(String channel, Message<?> message) {
+        String origin = message.origin == null ? null : message.origin.toString();
+        String json = toJson(message);
+        long seq = enqueue(channel, origin, json);
+        transport.send(channel, origin, json);
+        return seq;
+    }
+
+    /**
+     * Publishes a message to participants of a specified channel which are connected to this node only, e.g. if
+     * every node publishes the message on its own.
+     *
+     * @param channel the channel name, i.e. a session code
+     * @param message the message to publish
+     * @return the sequence number of the message
+     */
+    public long publishLocal(String channel, Message<?> message) {
+        return enqueue(channel, message.origin == null ? null : message.origin.toString(), toJson(message));
+    }
+
+    /**
+     * Returns the position in the history of a channel: its epoch and the sequence number of the last message.
+     *
+     * @param channel the channel name, i.e. a session code
+     * @return the <code>epoch</code> and <code>last</code> values
+     */
+    public Map<String, Object> getPosition(String channel) {
+        MessageHistory history = histories.getUnchecked(channel);
+        Map<String, Object> position = Maps.newLinkedHashMap();
+        position.put("epoch", history.getEpoch());
+        position.put("last", history.getLastSeq());
+        return position;
+    }
+
+    /**
+     * Returns a JavaScript statement which tells a client the current position in the history of a channel.
+     *
+     * @param channel the channel name, i.e. a session code
+     * @return the JavaScript statement
+     */
+    public String toSyncScript(String channel) {
+        MessageHistory history = histories.getUnchecked(channel);
+        long lastSeq = history.getLastSeq();
+        List<MessageHistory.Entry> none = Collections.emptyList();
+        return toDispatchScript(history.getEpoch(), lastSeq + 1, lastSeq, none, null);
+    }
+
+    /**
+     * Returns a JavaScript statement which delivers messages a client has missed.
+     *
+     * @param channel the channel name, i.e. a session code
+     * @param epoch the epoch of the history the client has seen
+     * @param afterSeq the sequence number of the last message the client has seen
+     * @param origin the client origin identifier, messages which originate from the client itself are skipped
+     * @return the JavaScript statement
+     */
+    public String toResyncScript(String channel, String epoch, long afterSeq, String origin) {
+        MessageHistory history = histories.getUnchecked(channel);
+        if (!history.getEpoch().equals(epoch)) { // another node or the history has expired, numbers are different
+            return toSyncScript(channel);
+        }
+        List<MessageHistory.Entry> missed = history.after(afterSeq);
+        long lastSeq = missed.isEmpty() ? afterSeq : missed.get(missed.size() - 1).seq;
+        return toDispatchScript(epoch, afterSeq + 1, lastSeq, missed, origin);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void publish(String topic, String payload) {
+        transport.send(EVENTS_CHANNEL_PREFIX + topic, null, payload);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void subscribe(String topic, ClusterEvents.Listener listener) {
+        List<ClusterEvents.Listener> listeners = eventListeners.get(topic);
+        if (listeners == null) {
+            List<ClusterEvents.Listener> newListeners = new CopyOnWriteArrayList<ClusterEvents.Listener>();
+            listeners = Objects.firstNonNull(eventListeners.putIfAbsent(topic, newListeners), newListeners);
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the number of responses which were not sent to slow consumers.
+     *
+     * @return the number of dropped responses
+     */
+    public long getDroppedResponses() {
+        return droppedResponses.get();
+    }
+
+    /**
+     * Returns the number of slow consumers which were disconnected.
+     *
+     * @return the number of disconnected consumers
+     */
+    public long getDisconnectedConsumers() {
+        return disconnectedConsumers.get();
+    }
+
+    /**
+     * Encodes a message into a JavaScript statement which dispatches the message on a client side.
+     *
+     * @param message the message to encode
+     * @return the JavaScript statement
+     */
+    public String toScript(Message<?> message) {
+        return "Poker.dispatch(" + toJson(message) + ");";
+    }
+
+    /**
+     * Encodes several messages into a JavaScript statement which dispatches the messages on a client side.
+     *
+     * @param messages the messages to encode
+     * @return the JavaScript statement
+     */
+    public String toScript(Iterable<? extends Message<?>> messages) {
+        StringBuilder script = new StringBuilder("Poker.dispatch([");
+        for (Message<?> message : messages) {
+            if (script.charAt(script.length() - 1) != '[') {
+                script.append(',');
+            }
+            script.append(toJson(message));
+        }
+        return script.append("]);").toString();
+    }
+
+    /**
+     * Reads the settings and starts receiving messages from other cluster nodes, is called once the instance
+     * is injected.
+     */
+    @Inject
+    void init() {
+        window = Math.max(ASYNC_BATCH_WINDOW.asInt().or(DEFAULT_ASYNC_BATCH_WINDOW), 0);
+        maxPendingWrites = Math.max(ASYNC_QUEUE_LIMIT.asInt().or(DEFAULT_ASYNC_QUEUE_LIMIT), 1);
+        disconnectSlowConsumers = "disconnect".equalsIgnoreCase(ASYNC_SLOW_CONSUMER_POLICY.asString().or(""));
+        final int historySize = Math.max(ASYNC_HISTORY_SIZE.asInt().or(DEFAULT_ASYNC_HISTORY_SIZE), 1);
+        histories = CacheBuilder.newBuilder()
+                .expireAfterAccess(HISTORY_TTL_HOURS, TimeUnit.HOURS)
+                .build(new CacheLoader<String, MessageHistory>() {
+
+                    @Override
+                    public MessageHistory load(String channel) {
+                        return new MessageHistory(historySize);
+                    }
+
+                });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+
+            private long lastDropped;
+            private long lastDisconnected;
+
+            @Override
+            public void run() {
+                long dropped = getDroppedResponses();
+                long disconnected = getDisconnectedConsumers();
+                if (dropped != lastDropped || disconnected != lastDisconnected) {
+                    LOG.info("Slow consumers in the last {} minutes: {} responses dropped, {} consumers disconnected",
+                             new Object[] {SLOW_CONSUMERS_LOG_MINUTES, dropped - lastDropped,
+                                           disconnected - lastDisconnected});
+                    lastDropped = dropped;
+                    lastDisconnected = disconnected;
+                }
+            }
+
+        }, SLOW_CONSUMERS_LOG_MINUTES, SLOW_CONSUMERS_LOG_MINUTES, TimeUnit.MINUTES);
+        transport.start(new ClusterTransport.Receiver() {
+
+            @Override
+            public void receive(String channel, String origin, String received) {
+                if (channel.startsWith(EVENTS_CHANNEL_PREFIX)) {
+                    onEvent(channel.substring(EVENTS_CHANNEL_PREFIX.length()), received);
+                    return;
+                }
+                String message = normalize(received);
+                if (message == null) {
+                    LOG.warn("Dropping a malformed message received from another node for a channel {}", channel);
+                    return;
+                }
+                enqueue(channel, origin, message);
+            }
+
+        });
+    }
+
+    private void onEvent(String topic, String payload) {
+        List<ClusterEvents.Listener> listeners = eventListeners.get(topic);
+        if (listeners != null) {
+            for (ClusterEvents.Listener listener : listeners) {
+                try {
+                    listener.onEvent(topic, payload);
+                } catch (RuntimeException re) {
+                    LOG.warn("A listener of cluster events " + topic + " failed", re);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that a message received from another node is a <code>[type, participant, payload]</code> array and
+     * encodes it again, so anything but a single JSON array never gets into a script evaluated by clients.
+     */
+    private String normalize(String message) {
+        JsonNode node;
+        try {
+            node = mapper.readTree(message);
+        } catch (IOException ioe) {
+            return null;
+        }
+        if (node == null || !node.isArray() || node.size() < 2 || node.size() > 3 || !node.get(0).isInt()
+                || !(node.get(1).isIntegralNumber() || node.get(1).isNull())) {
+            return null;
+        }
+        try {
+            return mapper.writeValueAsString(node);
+        } catch (JsonProcessingException jpe) {
+            return null;
+        }
+    }
+
+    private long enqueue(final String channel, String origin, String json) {
+        while (true) {
+            Batch batch = batches.get(channel);
+            if (batch == null) {
+                Batch newBatch = new Batch(histories.getUnchecked(channel));
+                batch = batches.putIfAbsent(channel, newBatch);
+                if (batch == null) {
+                    batch = newBatch;
+                    final Batch scheduled = newBatch;
+                    flusher.schedule(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            flush(channel, scheduled);
+                        }
+
+                    }, window, TimeUnit.MILLISECONDS);
+                }
+            }
+            synchronized (batch) {
+                if (!batch.closed) { // numbers are taken under the lock, so batches of a channel don't interleave
+                    long seq = batch.history.append(origin, json);
+                    batch.entries.add(new MessageHistory.Entry(seq, origin, json));
+                    return seq;
+                }
+            }
+            batches.remove(channel, batch); // the batch is being flushed, start a new one
+        }
+    }
+
+    private void flush(String channel, Batch batch) {
+        batches.remove(channel, batch);
+        synchronized (batch) {
+            batch.closed = true;
+        }
+        try {
+            Broadcaster broadcaster = BroadcasterFactory.getDefault().lookup(channel);
+            if (broadcaster == null) {
+                LOG.debug("No active Broadcaster for a channel {}", channel); // nobody is connected to this node
+            } else {
+                send(broadcaster, batch);
+            }
+        } catch (RuntimeException re) {
+            LOG.warn("Couldn't broadcast messages to a channel " + channel, re);
+        }
+    }
+
+    private void send(Broadcaster broadcaster, Batch batch) {
+        // resources of HTTP sessions which posted messages in the batch get all messages except their own,
+        // everybody else gets all messages, so the batch is encoded once per distinct origin at most
+        Set<String> origins = Sets.newHashSet();
+        for (MessageHistory.Entry entry : batch.entries) {
+            origins.add(entry.origin);
+        }
+        Map<String, Set<AtmosphereResource>> recipients = Maps.newHashMap();
+        for (AtmosphereResource resource : broadcaster.getAtmosphereResources()) {
+            HttpSession session = resource.session(false);
+            String origin = session != null && origins.contains(session.getId()) ? session.getId() : null;
+            Set<AtmosphereResource> group = recipients.get(origin);
+            if (group == null) {
+                group = Sets.newHashSet();
+                recipients.put(origin, group);
+            }
+            group.add(resource);
+        }
+        String epoch = batch.history.getEpoch();
+        long firstSeq = batch.entries.get(0).seq;
+        long lastSeq = batch.entries.get(batch.entries.size() - 1).seq;
+        for (Map.Entry<String, Set<AtmosphereResource>> group : recipients.entrySet()) {
+            if (group.getKey() == null || origins.size() > 1) { // otherwise the group posted all the messages itself
+                String script = toDispatchScript(epoch, firstSeq, lastSeq, batch.entries, group.getKey());
+                String response = toResponse(script);
+                for (AtmosphereResource resource : group.getValue()) {
+                    deliver(broadcaster, resource, response);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a response to a resource unless the resource is a slow consumer, i.e. it has too many previous writes
+     * still pending. A response to a slow consumer is dropped, the consumer will ask for the missed messages once it
+     * catches up, or the consumer is disconnected, depending on the policy.
+     */
+    private void deliver(Broadcaster broadcaster, AtmosphereResource resource, String response) {
+        Deque<Future<?>> writes = pendingWrites.getUnchecked(resource.uuid());
+        Iterables.removeIf(writes, new Predicate<Future<?>>() {
+
+            @Override
+            public boolean apply(Future<?> write) {
+                return write.isDone();
+            }
+
+        });
+        if (writes.size() < maxPendingWrites) {
+            writes.add(broadcaster.broadcast(response, resource));
+        } else if (disconnectSlowConsumers) {
+            LOG.warn("Disconnecting a slow consumer {}, {} writes are pending", resource.uuid(), writes.size());
+            disconnectedConsumers.incrementAndGet();
+            pendingWrites.invalidate(resource.uuid());
+            try {
+                broadcaster.removeAtmosphereResource(resource);
+                resource.resume();
+            } catch (RuntimeException re) {
+                LOG.warn("Couldn't disconnect a slow consumer " + resource.uuid(), re);
+            }
+        } else {
+            LOG.debug("Dropping a response to a slow consumer {}, {} writes are pending",
+                      resource.uuid(), writes.size());
+            droppedResponses.incrementAndGet();
+        }
+    }
+
+    private String toJson(Message<?> message) {
+        try {
+            return mapper.writeValueAsString(message);
+        } catch (JsonProcessingException jpe) {
+            throw Throwables.propagate(jpe);
+        }
+    }
+
+    /**
+     * Builds a <code>Poker.dispatch(messages, sync)</code> statement, <code>sync</code> tells the epoch, the range
+     * of sequence numbers the statement covers and the numbers of the messages themselves.
+     */
+    private static String toDispatchScript(String epoch, long firstSeq, long lastSeq,
+                                           List<MessageHistory.Entry> entries, String excludedOrigin) {
+        StringBuilder messages = new StringBuilder();
+        StringBuilder seqs = new StringBuilder();
+        for (MessageHistory.Entry entry : entries) {
+            if (excludedOrigin == null || !Objects.equal(excludedOrigin, entry.origin)) {
+                String separator = seqs.length() > 0 ? "," : "";
+                messages.append(separator).append(entry.message);
+                seqs.append(separator).append(entry.seq);
+            }
+        }
+        return String.format("Poker.dispatch([%s], {\"epoch\":\"%s\",\"first\":%d,\"last\":%d,\"seqs\":[%s]});",
+                             messages, epoch, firstSeq, lastSeq, seqs);
+    }
+
+    private static String toResponse(String script) {
+        // CDATA section can't contain its own terminator, so it is split into two sections
+        return RESPONSE_START + script.replace("]]>", "]]]]><![CDATA[>") + RESPONSE_END;
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+
+
+/**
+ * The last messages of a channel kept in a fixed-size ring buffer. Every message gets a sequence number which grows
+ * by one, so a client which missed some messages can ask for everything after the last number it has seen. Numbers
+ * are only meaningful within an epoch which identifies a particular history instance, e.g. on a particular node.
+ *
+ * @author Leonid Bogdanov
+ */
+final class MessageHistory {
+
+    /**
+     * A message in the history.
+     */
+    static final class Entry {
+
+        final long seq;
+        final String origin;
+        final String message;
+
+        Entry(long seq, String origin, String message) {
+            this.seq = seq;
+            this.origin = origin;
+            this.message = message;
+        }
+
+    }
+
+    private static final Random RND = new SecureRandom();
+
+    private final String epoch = Long.toString(RND.nextLong() & Long.MAX_VALUE, Character.MAX_RADIX);
+    private final Entry[] entries;
+    private long lastSeq;
+
+    /**
+     * Creates a new instance of <code>MessageHistory</code>.
+     *
+     * @param capacity the max number of messages to keep
+     */
+    MessageHistory(int capacity) {
+        entries = new Entry[capacity];
+    }
+
+    /**
+     * Returns the epoch of the history.
+     *
+     * @return the epoch
+     */
+    String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the sequence number of the last message, <code>0</code> if there were no messages yet.
+     *
+     * @return the sequence number
+     */
+    synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Appends a message to the history, evicts the oldest message if the history is full.
+     *
+     * @param origin the message origin identifier
+     * @param message the encoded message
+     * @return the sequence number of the message
+     */
+    synchronized long append(String origin, String message) {
+        lastSeq++;
+        entries[(int) (lastSeq % entries.length)] = new Entry(lastSeq, origin, message);
+        return lastSeq;
+    }
+
+    /**
+     * Returns the messages which follow a specified one and are still kept in the history.
+     *
+     * @param seq the sequence number of the last seen message
+     * @return the messages in order of their sequence numbers
+     */
+    synchronized List<Entry> after(long seq) {
+        long from = Math.max(seq + 1, Math.max(lastSeq - entries.length + 1, 1));
+        List<Entry> result = Lists.newArrayListWithCapacity((int) Math.max(lastSeq - from + 1, 0));
+        for (long i = from; i <= lastSeq; i++) {
+            result.add(entries[(int) (i % entries.length)]);
+        }
+        return result;
+    }
+
+}
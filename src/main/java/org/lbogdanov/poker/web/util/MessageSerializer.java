@@ -0,0 +1,69 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+
+/**
+ * Encodes a <code>Message</code> instance into a compact JSON array <code>[type, participant, payload]</code>, e.g.
+ * <code>[1,42,"Hello"]</code>. Participants are referred to by IDs, a client learns their names once from
+ * {@link JoinMessage}s and a names table sent with a page. The payload is omitted if it's <code>null</code>.
+ * 
+ * @author Leonid Bogdanov
+ */
+@SuppressWarnings("rawtypes")
+public class MessageSerializer extends StdSerializer<Message> {
+
+    private static final MessageSerializer INSTANCE = new MessageSerializer();
+
+    /**
+     * Returns a single instance of <code>MessageSerializer</code>.
+     * 
+     * @return the <code>MessageSerializer</code> instance
+     */
+    public static MessageSerializer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void serialize(Message value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+        jgen.writeStartArray();
+        jgen.writeNumber(value.getTypeCode());
+        Long participantId = value.getParticipantId();
+        if (participantId == null) {
+            jgen.writeNull();
+        } else {
+            jgen.writeNumber(participantId.longValue());
+        }
+        if (value.message != null) {
+            provider.defaultSerializeValue(value.message, jgen);
+        }
+        jgen.writeEndArray();
+    }
+
+    private MessageSerializer() {
+        super(Message.class);
+    }
+
+}
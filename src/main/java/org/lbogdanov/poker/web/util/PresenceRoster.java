@@ -0,0 +1,323 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import static org.lbogdanov.poker.core.Constants.DEFAULT_PRESENCE_HEARTBEAT;
+import static org.lbogdanov.poker.util.Settings.PRESENCE_HEARTBEAT;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.ClusterEvents;
+import org.lbogdanov.poker.core.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * Keeps track of participants of sessions. A participant is present while any of its pages sends heartbeats to any
+ * node, once the last page of a participant misses a few heartbeats the participant leaves. Only changes are
+ * published to pages, as {@link JoinMessage}s and {@link LeaveMessage}s, so a change costs the same no matter how
+ * large a session is.
+ * <p>
+ * Heartbeats are tracked by the node a page is connected to. Every node tells other nodes which participants are
+ * connected to it via {@link ClusterEvents}, when they join or leave and then once per heartbeat interval, and each
+ * node publishes join and leave messages to its own pages only. So a participant connected to several nodes leaves
+ * only once no node has it, and a participant of a node which went down leaves after a few missed reports.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class PresenceRoster {
+
+    /**
+     * Participants of a single session.
+     */
+    private static final class Roster {
+
+        // user ID -> page origin -> the last heartbeat time
+        final Map<Long, Map<String, Long>> heartbeats = Maps.newHashMap();
+        // user ID -> node ID -> the last time the node reported the user, for users connected to other nodes
+        final Map<Long, Map<String, Long>> remote = Maps.newHashMap();
+        // user ID -> the user name, for all present users including those connected to other nodes
+        final Map<Long, String> names = Maps.newLinkedHashMap();
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(PresenceRoster.class);
+    private static final int MISSED_HEARTBEATS = 3;
+    private static final String PRESENCE_TOPIC = "presence";
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final LoadingCache<String, Roster> rosters = CacheBuilder.newBuilder()
+            .build(new CacheLoader<String, Roster>() {
+
+                @Override
+                public Roster load(String channel) {
+                    return new Roster();
+                }
+
+            });
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("presence-sweeper").setDaemon(true).build());
+    private int heartbeatInterval;
+
+    @Inject
+    private MessageBroadcaster broadcaster;
+    @Inject
+    private ClusterEvents events;
+    @Inject
+    private ObjectMapper mapper;
+
+    /**
+     * Returns the interval between heartbeats a page must send.
+     *
+     * @return the interval in seconds
+     */
+    public int getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Records a heartbeat of a participant page, publishes a {@link JoinMessage} if the participant has just joined.
+     *
+     * @param channel the channel name, i.e. a session code
+     * @param user the participant
+     * @param origin the page origin identifier
+     */
+    public void heartbeat(String channel, User user, String origin) {
+        Roster roster = rosters.getUnchecked(channel);
+        String name = UserSerializer.get().convertToString(user, null);
+        boolean connected;
+        boolean joined;
+        synchronized (roster) {
+            Map<String, Long> pages = roster.heartbeats.get(user.getId());
+            connected = pages == null;
+            if (connected) {
+                pages = Maps.newHashMap();
+                roster.heartbeats.put(user.getId(), pages);
+            }
+            pages.put(origin, System.currentTimeMillis());
+            joined = roster.names.put(user.getId(), name) == null;
+        }
+        if (connected) {
+            report(channel, true, Collections.singletonMap(user.getId(), name));
+        }
+        if (joined) {
+            broadcaster.publishLocal(channel, new JoinMessage(null, user.getId(), name));
+        }
+    }
+
+    /**
+     * Returns the participants of a session as a list of {@link JoinMessage}s.
+     *
+     * @param channel the channel name, i.e. a session code
+     * @return the participants
+     */
+    public List<JoinMessage> getParticipants(String channel) {
+        Roster roster = rosters.getIfPresent(channel);
+        List<JoinMessage> participants = Lists.newArrayList();
+        if (roster != null) {
+            synchronized (roster) {
+                for (Map.Entry<Long, String> participant : roster.names.entrySet()) {
+                    participants.add(new JoinMessage(null, participant.getKey(), participant.getValue()));
+                }
+            }
+        }
+        return participants;
+    }
+
+    /**
+     * Reads the heartbeat setting, starts removing participants which stopped sending heartbeats and listening
+     * to reports of other nodes, is called once the instance is injected.
+     */
+    @Inject
+    void init() {
+        heartbeatInterval = Math.max(PRESENCE_HEARTBEAT.asInt().or(DEFAULT_PRESENCE_HEARTBEAT), 1);
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    sweep();
+                } catch (RuntimeException re) {
+                    LOG.warn("Couldn't remove gone participants", re);
+                }
+            }
+
+        }, heartbeatInterval, heartbeatInterval, TimeUnit.SECONDS);
+        events.subscribe(PRESENCE_TOPIC, new ClusterEvents.Listener() {
+
+            @Override
+            public void onEvent(String topic, String payload) {
+                applyReport(payload);
+            }
+
+        });
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        long expired = now - TimeUnit.SECONDS.toMillis(heartbeatInterval * MISSED_HEARTBEATS);
+        for (Map.Entry<String, Roster> entry : rosters.asMap().entrySet()) {
+            Roster roster = entry.getValue();
+            Map<Long, String> disconnected = Maps.newHashMap();
+            Map<Long, String> connected = Maps.newHashMap();
+            List<LeaveMessage> left = Lists.newArrayList();
+            synchronized (roster) {
+                Iterator<Map.Entry<Long, Map<String, Long>>> participants = roster.heartbeats.entrySet().iterator();
+                while (participants.hasNext()) {
+                    Map.Entry<Long, Map<String, Long>> participant = participants.next();
+                    Long id = participant.getKey();
+                    if (removeExpired(participant.getValue(), expired)) {
+                        participants.remove();
+                        disconnected.put(id, roster.names.get(id));
+                        if (!roster.remote.containsKey(id)) {
+                            roster.names.remove(id);
+                            left.add(new LeaveMessage(null, id));
+                        }
+                    } else {
+                        connected.put(id, roster.names.get(id));
+                    }
+                }
+                participants = roster.remote.entrySet().iterator();
+                while (participants.hasNext()) { // other nodes which stopped reporting participants are down
+                    Map.Entry<Long, Map<String, Long>> participant = participants.next();
+                    Long id = participant.getKey();
+                    if (removeExpired(participant.getValue(), expired)) {
+                        participants.remove();
+                        if (!roster.heartbeats.containsKey(id)) {
+                            roster.names.remove(id);
+                            left.add(new LeaveMessage(null, id));
+                        }
+                    }
+                }
+                if (roster.names.isEmpty()) {
+                    rosters.asMap().remove(entry.getKey(), roster);
+                }
+            }
+            if (!disconnected.isEmpty()) {
+                report(entry.getKey(), false, disconnected);
+            }
+            if (!connected.isEmpty()) {
+                report(entry.getKey(), true, connected);
+            }
+            for (LeaveMessage message : left) {
+                broadcaster.publishLocal(entry.getKey(), message);
+            }
+        }
+    }
+
+    /**
+     * Removes timestamps older than a specified time, returns <b>true</b> if no timestamps are left.
+     */
+    private static boolean removeExpired(Map<String, Long> timestamps, long expired) {
+        Iterator<Long> times = timestamps.values().iterator();
+        while (times.hasNext()) {
+            if (times.next() < expired) {
+                times.remove();
+            }
+        }
+        return timestamps.isEmpty();
+    }
+
+    /**
+     * Tells other nodes that participants are connected to this node or aren't connected anymore, a report is a
+     * <code>[node, channel, connected, [[user ID, name], ...]]</code> array.
+     */
+    private void report(String channel, boolean connected, Map<Long, String> participants) {
+        List<Object[]> users = Lists.newArrayListWithCapacity(participants.size());
+        for (Map.Entry<Long, String> participant : participants.entrySet()) {
+            users.add(new Object[] {participant.getKey(), participant.getValue()});
+        }
+        try {
+            events.publish(PRESENCE_TOPIC, mapper.writeValueAsString(new Object[] {nodeId, channel, connected,
+                                                                                   users}));
+        } catch (JsonProcessingException jpe) {
+            throw Throwables.propagate(jpe);
+        }
+    }
+
+    private void applyReport(String report) {
+        JsonNode node;
+        try {
+            node = mapper.readTree(report);
+        } catch (IOException ioe) {
+            LOG.warn("Couldn't read a presence report", ioe);
+            return;
+        }
+        String reporter = node.path(0).asText();
+        String channel = node.path(1).asText();
+        boolean connected = node.path(2).asBoolean();
+        if (reporter.equals(nodeId) || channel.isEmpty()) {
+            return;
+        }
+        Roster roster = connected ? rosters.getUnchecked(channel) : rosters.getIfPresent(channel);
+        if (roster == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Message<?>> changes = Lists.newArrayList();
+        synchronized (roster) {
+            for (JsonNode user : node.path(3)) {
+                Long id = user.path(0).asLong();
+                Map<String, Long> nodes = roster.remote.get(id);
+                if (connected) {
+                    if (nodes == null) {
+                        nodes = Maps.newHashMap();
+                        roster.remote.put(id, nodes);
+                    }
+                    nodes.put(reporter, now);
+                    String name = user.path(1).asText();
+                    if (roster.names.put(id, name) == null) {
+                        changes.add(new JoinMessage(null, id, name));
+                    }
+                } else if (nodes != null && nodes.remove(reporter) != null && nodes.isEmpty()) {
+                    roster.remote.remove(id);
+                    if (!roster.heartbeats.containsKey(id)) { // not present via this node either
+                        roster.names.remove(id);
+                        changes.add(new LeaveMessage(null, id));
+                    }
+                }
+            }
+        }
+        for (Message<?> change : changes) {
+            broadcaster.publishLocal(channel, change);
+        }
+    }
+
+}
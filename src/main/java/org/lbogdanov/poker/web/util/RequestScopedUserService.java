@@ -0,0 +1,118 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.lbogdanov.poker.core.User;
+import org.lbogdanov.poker.core.UserService;
+import org.lbogdanov.poker.core.impl.UserServiceImpl;
+
+import com.google.common.base.Optional;
+import com.google.inject.OutOfScopeException;
+
+
+/**
+ * A {@link UserService} decorator which resolves the current user once per request. The user is remembered in
+ * the metadata of the current Wicket <code>RequestCycle</code> or, outside of Wicket, in an attribute of the current
+ * Guice-scoped <code>HttpServletRequest</code>. Calls made outside of any request go straight to the decorated service.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class RequestScopedUserService implements UserService {
+
+    private static final MetaDataKey<Optional<User>> USER_KEY = new MetaDataKey<Optional<User>>() {};
+    private static final String USER_ATTRIBUTE = RequestScopedUserService.class.getName() + ".USER";
+
+    @Inject
+    private UserServiceImpl delegate;
+    @Inject
+    private Provider<HttpServletRequest> request;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public User getCurrentUser() {
+        RequestCycle cycle = RequestCycle.get();
+        if (cycle != null) {
+            Optional<User> user = cycle.getMetaData(USER_KEY);
+            if (user == null) {
+                user = Optional.fromNullable(delegate.getCurrentUser());
+                cycle.setMetaData(USER_KEY, user);
+            }
+            return user.orNull();
+        }
+        HttpServletRequest servletRequest = currentRequest();
+        if (servletRequest != null) {
+            @SuppressWarnings("unchecked")
+            Optional<User> user = (Optional<User>) servletRequest.getAttribute(USER_ATTRIBUTE);
+            if (user == null) {
+                user = Optional.fromNullable(delegate.getCurrentUser());
+                servletRequest.setAttribute(USER_ATTRIBUTE, user);
+            }
+            return user.orNull();
+        }
+        return delegate.getCurrentUser();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void login(String username, String password, boolean rememberme) {
+        forget();
+        delegate.login(username, password, rememberme);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save(User user) {
+        delegate.save(user);
+        forget();
+    }
+
+    /**
+     * Forgets the user remembered by the current request, so the next call resolves the user again.
+     */
+    private void forget() {
+        RequestCycle cycle = RequestCycle.get();
+        if (cycle != null) {
+            cycle.setMetaData(USER_KEY, null);
+        }
+        HttpServletRequest servletRequest = currentRequest();
+        if (servletRequest != null) {
+            servletRequest.removeAttribute(USER_ATTRIBUTE);
+        }
+    }
+
+    private HttpServletRequest currentRequest() {
+        try {
+            return request.get();
+        } catch (OutOfScopeException oose) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.CharacterEscapes;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+
+/**
+ * Makes JSON safe to embed into an inline <code>&lt;script&gt;</code> block: <code>&lt;</code>, <code>&gt;</code>,
+ * <code>&amp;</code> and <code>/</code> are written as Unicode escapes, so user text like
+ * <code>&lt;/script&gt;</code> can't close the block. Line and paragraph separators are escaped too, as they end
+ * a JavaScript string literal.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class ScriptCharacterEscapes extends CharacterEscapes {
+
+    private static final long serialVersionUID = 1L;
+    private static final ScriptCharacterEscapes INSTANCE = new ScriptCharacterEscapes();
+    private static final SerializableString LINE_SEPARATOR = new SerializedString("\\u2028");
+    private static final SerializableString PARAGRAPH_SEPARATOR = new SerializedString("\\u2029");
+
+    private final int[] asciiEscapes;
+
+    /**
+     * Returns a single instance of <code>ScriptCharacterEscapes</code>.
+     * 
+     * @return the <code>ScriptCharacterEscapes</code> instance
+     */
+    public static ScriptCharacterEscapes get() {
+        return INSTANCE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getEscapeCodesForAscii() {
+        return asciiEscapes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SerializableString getEscapeSequence(int ch) {
+        switch (ch) {
+            case 0x2028:
+                return LINE_SEPARATOR;
+            case 0x2029:
+                return PARAGRAPH_SEPARATOR;
+            default:
+                return null;
+        }
+    }
+
+    private ScriptCharacterEscapes() {
+        asciiEscapes = standardAsciiEscapesForJSON();
+        asciiEscapes['<'] = ESCAPE_STANDARD;
+        asciiEscapes['>'] = ESCAPE_STANDARD;
+        asciiEscapes['&'] = ESCAPE_STANDARD;
+        asciiEscapes['/'] = ESCAPE_STANDARD;
+    }
+
+}
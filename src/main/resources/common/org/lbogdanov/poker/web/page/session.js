@@ -9,6 +9,95 @@ var Poker = (function() {
             $(".mCSB_container", chatLog).append(msg);
             chatLog.mCustomScrollbar("update");
             chatLog.mCustomScrollbar("scrollTo", "last");
+        },
+        // messages are [type, participant ID, payload] arrays, participants' names are learned only once
+        msgTypes = {chat: 1, join: 2, leave: 3},
+        names = {},
+        nameOf = function(id) {
+            return names.hasOwnProperty(id) ? names[id] : "#" + id;
+        },
+        dispatchMsg = function(msg) {
+            var id = msg[1];
+            switch (msg[0]) {
+                case msgTypes.chat:
+                    appendMsg($.i18n.printf(msgTpl, [nameOf(id), msg[2]]));
+                    break;
+                case msgTypes.join:
+                    names[id] = msg[2];
+                    if ($("#participants li[data-id='" + id + "']").length === 0) {
+                        $("<li>").attr("data-id", id).text(msg[2]).appendTo("#participants");
+                    }
+                    break;
+                case msgTypes.leave:
+                    $("#participants li[data-id='" + id + "']").remove();
+                    break;
+            }
+        },
+        // the position in the session message history: its epoch, the last seen message number
+        // and numbers of own messages which the server doesn't send back
+        history = {epoch: null, last: 0, own: {}},
+        resync = null,
+        resyncing = false,
+        resyncTimer = null,
+        // batches pushed while missed messages are being fetched, they are dispatched once the fetch is over
+        pending = [],
+        requestResync = function() {
+            if (resync && !resyncing && history.epoch !== null) {
+                resyncing = true;
+                resyncTimer = setTimeout(endResync, 10000); // give up on a lost response, a next gap asks again
+                resync(history.epoch, history.last);
+            }
+        },
+        endResync = function() {
+            var batches = pending;
+            clearTimeout(resyncTimer);
+            resyncing = false;
+            pending = [];
+            $.each(batches, function(i, batch) {
+                Poker.dispatch(batch[0], batch[1]);
+            });
+        },
+        eventsUrl = null,
+        heartbeats = false,
+        connected = false,
+        // keeps the current user present and tells whether some pushed messages were missed
+        sendHeartbeat = function() {
+            $.ajax({
+                url: eventsUrl,
+                type: "POST",
+                data: {type: "heartbeat"},
+                dataType: "json",
+                success: function(data) {
+                    var known = history.last;
+                    while (history.own[known + 1]) {
+                        known++;
+                    }
+                    if (data.epoch !== history.epoch || data.last > known) {
+                        requestResync();
+                    }
+                }
+            });
+        },
+        // posts a chat message to the session events endpoint, the page form is only used without JavaScript
+        sendMsg = function() {
+            var chatMsg = $("#chatMsg");
+            if (chatMsg.val().length === 0) {
+                return;
+            }
+            Poker.toggleForm("chatForm", true);
+            $.ajax({
+                url: eventsUrl,
+                type: "POST",
+                data: {type: "chat", text: chatMsg.val()},
+                dataType: "json",
+                success: function(data) {
+                    Poker.ack(data.seq);
+                },
+                complete: function(xhr) {
+                    Poker.msgSent(xhr);
+                    Poker.toggleForm("chatForm", false);
+                }
+            });
         };
 
     $(function() {
@@ -23,6 +112,26 @@ var Poker = (function() {
                 }
             }
         });
+        $("#chatSend").click(function(evt) {
+            if (eventsUrl) {
+                evt.preventDefault();
+                sendMsg();
+            }
+        });
+        // pushes sent while a client (re)connects are not delivered, so ask for them once connected,
+        // the current user joins a session with the first heartbeat, once a push connection is open
+        if ($.atmosphere) {
+            $.atmosphere.onOpen = function() {
+                if (!connected && heartbeats) {
+                    sendHeartbeat();
+                }
+                connected = true;
+                requestResync();
+            };
+            $.atmosphere.onReconnect = function() {
+                requestResync();
+            };
+        }
         // turn Bootstrap tooltips on
         $(".tip").tooltip();
         // turn custom scrollbars on
@@ -50,12 +159,63 @@ var Poker = (function() {
         toggleForm: function(form, disabled) {
             $($.i18n.printf("#%s :input", [form])).prop("disabled", disabled);
         },
-        dispatch: function(msg) {
-            switch (msg.type) {
-                case "chatMsg":
-                    appendMsg($.i18n.printf(msgTpl, [msg.author, msg.message]));
-                    break;
+        setNames: function(table) {
+            $.extend(names, table);
+        },
+        setEventsUrl: function(url) {
+            eventsUrl = url;
+        },
+        setHeartbeat: function(seconds) {
+            heartbeats = true;
+            setInterval(sendHeartbeat, seconds * 1000);
+            if (connected) {
+                sendHeartbeat();
+            }
+        },
+        setResync: function(callback) {
+            resync = callback;
+        },
+        resynced: function() {
+            endResync();
+        },
+        resyncFailed: function() {
+            clearTimeout(resyncTimer);
+            resyncTimer = setTimeout(endResync, 2000); // don't hammer a server which is down
+        },
+        ack: function(seq) {
+            history.own[seq] = true;
+        },
+        dispatch: function(msg, sync) {
+            var expected;
+            if (!sync) { // a message outside of the session history
+                $.each($.isArray(msg[0]) ? msg : [msg], function(i, item) {
+                    dispatchMsg(item);
+                });
+                return;
+            }
+            if (sync.epoch !== history.epoch) { // a new history, e.g. on another server, numbers start over
+                history = {epoch: sync.epoch, last: sync.first - 1, own: {}};
             }
+            expected = history.last + 1;
+            while (history.own[expected]) {
+                expected++;
+            }
+            if (sync.first > expected) { // some messages were missed, ask for everything after the last seen one
+                pending.push([msg, sync]);
+                requestResync();
+                return;
+            }
+            $.each(msg, function(i, item) {
+                if (sync.seqs[i] > history.last) {
+                    dispatchMsg(item);
+                }
+            });
+            history.last = Math.max(history.last, sync.last);
+            $.each(history.own, function(seq) {
+                if (seq <= history.last) {
+                    delete history.own[seq];
+                }
+            });
         }
     };
 })();
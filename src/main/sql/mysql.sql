@@ -24,3 +24,54 @@ CREATE TABLE `SESSIONS` (
         REFERENCES `USERS` (`ID`)
         ON UPDATE CASCADE ON DELETE CASCADE
 );
+
+CREATE TABLE `CHAT_LOG` (
+    `ID` BIGINT PRIMARY KEY AUTO_INCREMENT,
+    `SESSION_ID` BIGINT NOT NULL,
+    `AUTHOR_ID` BIGINT NOT NULL,
+    `POSTED` TIMESTAMP NOT NULL,
+    `MESSAGE` VARCHAR(4096) NOT NULL,
+    INDEX `CHAT_LOG_SESSION_ID` (`SESSION_ID`, `ID`),
+    FOREIGN KEY (`SESSION_ID`)
+        REFERENCES `SESSIONS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE,
+    FOREIGN KEY (`AUTHOR_ID`)
+        REFERENCES `USERS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE
+);
+
+CREATE TABLE `ID_BLOCKS` (
+    `NAME` VARCHAR(32) PRIMARY KEY,
+    `NEXT_ID` BIGINT NOT NULL
+);
+INSERT INTO `ID_BLOCKS` (`NAME`, `NEXT_ID`) VALUES ('ROUNDS', 1), ('VOTES', 1);
+
+CREATE TABLE `ROUNDS` (
+    `ID` BIGINT PRIMARY KEY,
+    `SESSION_ID` BIGINT NOT NULL,
+    `ESTIMATES` VARCHAR(1024) NOT NULL,
+    `STARTED` TIMESTAMP NOT NULL,
+    `REVEALED` TIMESTAMP NOT NULL,
+    `VOTES` INT NOT NULL,
+    `MIN_MINUTES` INT NULL,
+    `MAX_MINUTES` INT NULL,
+    `MEDIAN_MINUTES` INT NULL,
+    `MODE_MINUTES` INT NULL,
+    INDEX `ROUNDS_SESSION_ID` (`SESSION_ID`, `ID`),
+    FOREIGN KEY (`SESSION_ID`)
+        REFERENCES `SESSIONS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE
+);
+
+CREATE TABLE `VOTES` (
+    `ID` BIGINT PRIMARY KEY,
+    `ROUND_ID` BIGINT NOT NULL,
+    `USER_ID` BIGINT NOT NULL,
+    `MINUTES` INT NOT NULL,
+    FOREIGN KEY (`ROUND_ID`)
+        REFERENCES `ROUNDS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE,
+    FOREIGN KEY (`USER_ID`)
+        REFERENCES `USERS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE
+);
@@ -3,10 +3,13 @@ package org.lbogdanov.poker.core;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.lbogdanov.poker.core.Duration.MINUTES_PER_DAY;
 import static org.lbogdanov.poker.core.Duration.MINUTES_PER_HOUR;
 import static org.lbogdanov.poker.core.Duration.MINUTES_PER_WEEK;
 
+import java.util.Arrays;
+
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -94,4 +97,60 @@ public class DurationTest {
         assertEquals("1d", new Duration(MINUTES_PER_DAY).toString());
     }
 
+    /**
+     * Test for {@link Duration#parse(CharSequence, int[])}.
+     */
+    @Test
+    public void testParseToArray() {
+        int[] minutes = new int[2];
+
+        assertEquals(3, Duration.parse(new StringBuilder("30m, 1h; 1 0d"), minutes));
+        assertArrayEquals(new int[] {30, MINUTES_PER_HOUR}, minutes);
+        assertEquals(0, Duration.parse("", minutes));
+        assertEquals(1, Duration.parse("1w", null));
+    }
+
+    /**
+     * Test for {@link Duration#parse(CharSequence, int[])} with an overflowing input.
+     */
+    @Test
+    public void testParseWithOverflow() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("9999999w");
+        Duration.parse("9999999w", null);
+    }
+
+    /**
+     * Test for {@link Duration#format(int, StringBuilder)}.
+     */
+    @Test
+    public void testFormat() {
+        StringBuilder out = new StringBuilder("[");
+
+        assertEquals("[2w 3h", Duration.format(2 * MINUTES_PER_WEEK + 3 * MINUTES_PER_HOUR, out).toString());
+        assertEquals("[2w 3h0", Duration.format(0, out).toString());
+    }
+
+    /**
+     * Test for {@link Duration#valueOf(int)}.
+     */
+    @Test
+    public void testValueOf() {
+        assertSame(Duration.valueOf(30), Duration.valueOf(30));
+        assertSame(Duration.valueOf(13 * MINUTES_PER_HOUR), Duration.parse("13h").get(0));
+        assertEquals(new Duration(31), Duration.valueOf(31));
+    }
+
+    /**
+     * Test for {@link Duration#asList(int...)} and {@link Duration#toMinutes(java.util.Collection)}.
+     */
+    @Test
+    public void testMinutesConversion() {
+        int[] minutes = {30, MINUTES_PER_DAY, 7};
+
+        assertEquals(Arrays.asList(new Duration(30), new Duration(MINUTES_PER_DAY), new Duration(7)),
+                     Duration.asList(minutes));
+        assertArrayEquals(minutes, Duration.toMinutes(Duration.asList(minutes)));
+    }
+
 }
@@ -0,0 +1,43 @@
+package org.lbogdanov.poker.core;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link EstimateDeck} class.
+ *
+ * @author Leonid Bogdanov
+ *
+ */
+public class EstimateDeckTest {
+
+    /**
+     * Test for {@link EstimateDeck#of(String)}.
+     */
+    @Test
+    public void testOf() {
+        EstimateDeck deck = EstimateDeck.of("1d, 30m, 4h, 60m, 1h");
+
+        assertEquals(4, deck.size());
+        assertEquals(Arrays.asList("30m", "1h", "4h", "1d"), deck.getLabels());
+        assertEquals(Duration.MINUTES_PER_DAY, deck.getMinutes(3));
+        assertEquals(1, deck.indexOf(Duration.MINUTES_PER_HOUR));
+        assertTrue(deck.indexOf(2) < 0);
+        assertSame(deck, EstimateDeck.of("1d, 30m, 4h, 60m, 1h"));
+    }
+
+    /**
+     * Test for {@link EstimateDeck#of(String)} with invalid input.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testOfWithInvalidInput() {
+        EstimateDeck.of("1y");
+    }
+
+}
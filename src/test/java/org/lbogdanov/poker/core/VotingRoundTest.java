@@ -0,0 +1,114 @@
+package org.lbogdanov.poker.core;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link VotingRound} class.
+ *
+ * @author Leonid Bogdanov
+ *
+ */
+public class VotingRoundTest {
+
+    /**
+     * Test for {@link VotingRound#reveal()} statistics.
+     */
+    @Test
+    public void testReveal() {
+        VotingRound round = new VotingRound(EstimateDeck.of("1d 30m 4h 1h")); // 30m 1h 4h 1d
+        round.vote(1L, 0); // 30m
+        round.vote(2L, 1); // 1h
+        round.vote(3L, 1); // 1h
+        round.vote(4L, 3); // 1d
+        VotingResult result = round.reveal();
+
+        assertEquals(4, result.getVotes());
+        assertEquals(2, result.getCount(1));
+        assertEquals(0, result.getCount(2));
+        assertEquals(0, result.getMin());
+        assertEquals(3, result.getMax());
+        assertEquals(1, result.getMedian());
+        assertEquals(1, result.getMode());
+        assertSame(result, round.reveal());
+    }
+
+    /**
+     * Test for {@link VotingRound#vote(Long, int)} when a participant changes a vote and after a round is revealed.
+     */
+    @Test
+    public void testVote() {
+        VotingRound round = new VotingRound(EstimateDeck.of("1h 2h"));
+        assertTrue(round.vote(1L, 0));
+        assertTrue(round.vote(1L, 1));
+        assertTrue(round.vote(1L, 1));
+        assertTrue(round.hasVoted(1L));
+        VotingResult result = round.reveal();
+
+        assertFalse(round.vote(2L, 0));
+        assertFalse(round.hasVoted(2L));
+        assertEquals(1, result.getVotes());
+        assertEquals(0, result.getCount(0));
+        assertEquals(1, result.getCount(1));
+    }
+
+    /**
+     * Test for {@link VotingRound#reveal()} without votes.
+     */
+    @Test
+    public void testRevealWithoutVotes() {
+        VotingResult result = new VotingRound(EstimateDeck.of("1h")).reveal();
+
+        assertEquals(0, result.getVotes());
+        assertEquals(-1, result.getMin());
+        assertEquals(-1, result.getMedian());
+    }
+
+    /**
+     * Test for {@link VotingRound#vote(Long, int)} with concurrent voters.
+     */
+    @Test
+    public void testConcurrentVotes() throws InterruptedException {
+        final int voters = 1000;
+        final VotingRound round = new VotingRound(EstimateDeck.of("1h 2h 3h 4h"));
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < voters; i++) {
+            final long voter = i;
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    round.vote(voter, (int) (voter % 4)); // every voter changes its mind once
+                    round.vote(voter, (int) ((voter + 1) % 4));
+                }
+
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        VotingResult result = round.reveal();
+
+        assertEquals(voters, result.getVotes());
+        for (int card = 0; card < 4; card++) {
+            assertEquals(voters / 4, result.getCount(card));
+        }
+    }
+
+}
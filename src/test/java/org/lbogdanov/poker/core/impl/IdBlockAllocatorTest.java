@@ -0,0 +1,133 @@
+package org.lbogdanov.poker.core.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests for {@link IdBlockAllocator} class. Blocks are reserved from an in-memory <code>ID_BLOCKS</code> table,
+ * which may be shared by several allocators as by several cluster nodes.
+ *
+ * @author Leonid Bogdanov
+ *
+ */
+public class IdBlockAllocatorTest {
+
+    /**
+     * Next keys of tables, as kept by the <code>ID_BLOCKS</code> table.
+     */
+    private static final class IdBlocks {
+
+        final Map<String, Long> nextIds = Maps.newHashMap();
+
+        synchronized long reserve(String table, int size) {
+            Long next = nextIds.get(table);
+            long end = (next == null ? 1 : next) + size;
+            nextIds.put(table, end);
+            return end;
+        }
+
+    }
+
+    /**
+     * An allocator which reserves blocks from {@link IdBlocks} and records sizes of reserved blocks.
+     */
+    private static final class Allocator extends IdBlockAllocator {
+
+        final IdBlocks idBlocks;
+        final List<Integer> reserved = Lists.newArrayList();
+
+        Allocator(IdBlocks idBlocks) {
+            this.idBlocks = idBlocks;
+        }
+
+        @Override
+        long reserve(String table, int size) {
+            reserved.add(size);
+            return idBlocks.reserve(table, size);
+        }
+
+    }
+
+    /**
+     * Test for requests smaller than a block, they share a single reserved block.
+     */
+    @Test
+    public void testSmallerThanBlock() {
+        Allocator allocator = new Allocator(new IdBlocks());
+        assertEquals(1, allocator.allocate("T", 10));
+        assertEquals(11, allocator.allocate("T", 10));
+        assertEquals(21, allocator.allocate("T", 979));
+        assertEquals(1000, allocator.allocate("T", 1));
+        assertEquals(Lists.newArrayList(1000), allocator.reserved);
+
+        assertEquals(1001, allocator.allocate("T", 1)); // the block is used up
+        assertEquals(Lists.newArrayList(1000, 1000), allocator.reserved);
+    }
+
+    /**
+     * Test for a request equal to a block, it takes the whole block.
+     */
+    @Test
+    public void testEqualToBlock() {
+        Allocator allocator = new Allocator(new IdBlocks());
+        assertEquals(1, allocator.allocate("T", 1000));
+        assertEquals(1001, allocator.allocate("T", 1000));
+        assertEquals(2001, allocator.allocate("T", 5));
+        assertEquals(Lists.newArrayList(1000, 1000, 1000), allocator.reserved);
+    }
+
+    /**
+     * Test for a request larger than a block, a block of the request size is reserved, the rest of the previous
+     * block is skipped.
+     */
+    @Test
+    public void testLargerThanBlock() {
+        Allocator allocator = new Allocator(new IdBlocks());
+        assertEquals(1, allocator.allocate("T", 10));
+        assertEquals(1001, allocator.allocate("T", 2500));
+        assertEquals(3501, allocator.allocate("T", 10));
+        assertEquals(Lists.newArrayList(1000, 2500, 1000), allocator.reserved);
+    }
+
+    /**
+     * Test for allocators which share tables, like cluster nodes do, keys never collide and tables are independent.
+     */
+    @Test
+    public void testNoCollisions() {
+        IdBlocks idBlocks = new IdBlocks();
+        List<Allocator> allocators = Lists.newArrayList(new Allocator(idBlocks), new Allocator(idBlocks),
+                                                        new Allocator(idBlocks));
+        Map<String, Set<Long>> keys = Maps.newHashMap();
+        keys.put("A", Sets.<Long>newHashSet());
+        keys.put("B", Sets.<Long>newHashSet());
+        Random rnd = new Random(42);
+        int[] counts = {1, 7, 999, 1000, 1001, 2500};
+        for (int i = 0; i < 300; i++) {
+            String table = rnd.nextBoolean() ? "A" : "B";
+            int count = counts[rnd.nextInt(counts.length)];
+            long first = allocators.get(rnd.nextInt(allocators.size())).allocate(table, count);
+            for (long key = first; key < first + count; key++) {
+                assertTrue("Key " + key + " of " + table + " is allocated twice", keys.get(table).add(key));
+            }
+        }
+        for (Map.Entry<String, Set<Long>> table : keys.entrySet()) { // only reserved keys are allocated
+            long end = idBlocks.reserve(table.getKey(), 0);
+            for (Long key : table.getValue()) {
+                assertTrue(key >= 1 && key < end);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package org.lbogdanov.poker.core.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.lbogdanov.poker.core.Session;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link KeysetPagingList} class. Rows are fetched from memory, so the tests check which pages are read
+ * from which positions rather than the generated SQL.
+ *
+ * @author Alexandra Fomina
+ *
+ */
+public class KeysetPagingListTest {
+
+    /**
+     * Sessions sorted by their names and then IDs, three sessions share every name.
+     */
+    private static final class InMemoryList extends KeysetPagingList<Session> {
+
+        final List<Session> rows = Lists.newArrayList();
+        final List<String> fetches = Lists.newArrayList();
+
+        InMemoryList(int rowCount, int pageSize, boolean exactCount) {
+            super(null, "name", NAME, true, pageSize,
+                  exactCount ? Optional.of(Suppliers.ofInstance(rowCount)) : Optional.<Supplier<Integer>>absent());
+            for (int i = 0; i < rowCount; i++) {
+                Session session = new Session();
+                session.setId(i + 1L);
+                session.setName(String.format("n%03d", i / 3));
+                rows.add(session);
+            }
+        }
+
+        @Override
+        List<Session> fetch(Position from, boolean forward, boolean inclusive, int skip, int count) {
+            Session anchor = from == null ? null : rows.get(from.id.intValue() - 1);
+            String start = from == null ? (forward ? "first" : "last") : "#" + from.id;
+            fetches.add(start + (forward ? "+" : "-") + skip);
+            List<Session> ordered = forward ? rows : Lists.reverse(rows);
+            List<Session> result = Lists.newArrayList();
+            boolean started = anchor == null;
+            for (Session row : ordered) {
+                if (!started && row == anchor) {
+                    started = true;
+                    if (!inclusive) {
+                        continue;
+                    }
+                }
+                if (started && skip-- <= 0 && (count == 0 || result.size() < count)) {
+                    result.add(row);
+                }
+            }
+            return result;
+        }
+
+    }
+
+    private static final Function<Session, String> NAME = new Function<Session, String>() {
+
+        @Override
+        public String apply(Session session) {
+            return session.getName();
+        }
+
+    };
+
+    /**
+     * Test for {@link KeysetPagingList#getPage(int)} when pages are read in order, every next page is read right
+     * after the last row of the previous one.
+     */
+    @Test
+    public void testForwardPaging() {
+        InMemoryList list = new InMemoryList(25, 10, true);
+
+        assertEquals(ids(1, 10), ids(list.getPage(0)));
+        assertEquals(ids(11, 20), ids(list.getPage(1)));
+        assertEquals(ids(21, 25), ids(list.getPage(2)));
+        assertEquals(Lists.newArrayList("first+0", "#10+0", "#20+0"), list.fetches);
+        assertEquals(3, list.getTotalPageCount());
+        assertTrue(list.isTotalRowCountExact());
+    }
+
+    /**
+     * Test for {@link KeysetPagingList#getPage(int)} when a page is closer to a known page which follows it or to
+     * the end of the list.
+     */
+    @Test
+    public void testBackwardPaging() {
+        InMemoryList list = new InMemoryList(60, 10, true);
+        list.getTotalRowCount(); // the end of the list is only known once the list is counted
+
+        assertEquals(ids(1, 10), ids(list.getPage(0)));
+        assertEquals(ids(41, 50), ids(list.getPage(4))); // from the end of the list
+        assertEquals(ids(31, 40), ids(list.getPage(3))); // back from the last row of page 4
+        assertEquals(ids(51, 60), ids(list.getPage(5))); // forward from the last row of page 4
+        assertEquals(Lists.newArrayList("first+0", "last-10", "#50-10", "#50+0"), list.fetches);
+    }
+
+    /**
+     * Test for {@link KeysetPagingList#getPage(int)} and row count estimation at the end of a list without an exact
+     * row count.
+     */
+    @Test
+    public void testEndOfList() {
+        InMemoryList list = new InMemoryList(25, 10, false);
+
+        assertFalse(list.isTotalRowCountExact());
+        assertEquals(11, list.getTotalRowCount()); // the first page and a look-ahead row
+        assertEquals(ids(21, 25), ids(list.getPage(2)));
+        assertEquals(25, list.getTotalRowCount());
+        assertEquals(3, list.getTotalPageCount());
+        assertTrue(list.getPage(3).isEmpty());
+        assertEquals(25, list.getTotalRowCount());
+    }
+
+    /**
+     * Test for {@link KeysetPagingList#getPage(int)} with a page which is read again after another one.
+     */
+    @Test
+    public void testRepeatedPage() {
+        InMemoryList list = new InMemoryList(25, 10, true);
+        list.getTotalRowCount();
+        list.getPage(1);
+        list.getPage(2);
+        list.getPage(1);
+
+        assertEquals(Lists.newArrayList("last-5", "#20+0", "#20-0"), list.fetches);
+        assertEquals(ids(11, 20), ids(list.getPage(1)));
+    }
+
+    private static List<Long> ids(long first, long last) {
+        List<Long> ids = Lists.newArrayList();
+        for (long id = first; id <= last; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static List<Long> ids(List<Session> sessions) {
+        List<Long> ids = Lists.newArrayList();
+        for (Session session : sessions) {
+            ids.add(session.getId());
+        }
+        return ids;
+    }
+
+}
@@ -0,0 +1,200 @@
+package org.lbogdanov.poker.core.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lbogdanov.poker.core.Session;
+import org.lbogdanov.poker.core.User;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.ExpressionList;
+import com.avaje.ebean.Query;
+import com.google.common.collect.Lists;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+
+/**
+ * Tests for {@link SessionNameIndex} class. Sessions of an author are loaded from a mocked database.
+ *
+ * @author Leonid Bogdanov
+ *
+ */
+public class SessionNameIndexTest {
+
+    private final List<Session> rows = Lists.newArrayList();
+    private final User author = new User();
+    private SessionNameIndex index;
+    private Runnable whileLoading;
+    private int loads;
+
+    /**
+     * Sets up test environment, is called before a test is executed.
+     */
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        author.setId(7L);
+        final EbeanServer ebean = mock(EbeanServer.class);
+        Query<Session> query = mock(Query.class);
+        ExpressionList<Session> exprList = mock(ExpressionList.class);
+        when(ebean.find(Session.class)).thenReturn(query);
+        when(query.select(anyString())).thenReturn(query);
+        when(query.where()).thenReturn(exprList);
+        when(exprList.eq(anyString(), any())).thenReturn(exprList);
+        when(exprList.findList()).thenAnswer(new Answer<List<Session>>() {
+
+            @Override
+            public List<Session> answer(InvocationOnMock invocation) {
+                loads++;
+                List<Session> loaded = Lists.newArrayList(rows); // rows are read before changes made meanwhile
+                if (whileLoading != null) {
+                    whileLoading.run();
+                }
+                return loaded;
+            }
+
+        });
+        index = Guice.createInjector(new AbstractModule() {
+
+            @Override
+            protected void configure() {
+                bind(EbeanServer.class).toInstance(ebean);
+            }
+
+        }).getInstance(SessionNameIndex.class);
+    }
+
+    /**
+     * Test for {@link SessionNameIndex#search(User, String, String, boolean)}, sessions which names start with
+     * a pattern come first, the search and the name ordering are case insensitive.
+     */
+    @Test
+    public void testSearch() {
+        session(1, "Sprint planning", 5);
+        session(2, "Backlog PLANNING", 4);
+        session(3, "planning poker", 3);
+        session(4, "Retrospective", 2);
+        session(5, "Plan", 1);
+
+        assertEquals(ids(3, 2, 1), index.search(author, "planning", "name", true));
+        assertEquals(ids(3, 1, 2), index.search(author, "PLANNING", "name", false));
+        assertEquals(ids(3, 2, 1), index.search(author, "planning", "created", true));
+        assertEquals(ids(5, 3, 2, 1), index.search(author, "plan", "created", true));
+        assertEquals(ids(3, 5, 1, 2), index.search(author, "pla", "author", true));
+        assertEquals(ids(), index.search(author, "planet", "name", true));
+        assertEquals(1, loads);
+    }
+
+    /**
+     * Test for the name ordering, it agrees with a case insensitive database collation and sorts equal names
+     * by IDs.
+     */
+    @Test
+    public void testNameOrdering() {
+        session(1, "b session", 1);
+        session(2, "Z session", 2);
+        session(3, "a session", 3);
+        session(4, "B session", 4);
+
+        assertEquals(ids(3, 1, 4, 2), index.search(author, "session", "name", true));
+        assertEquals(ids(2, 4, 1, 3), index.search(author, "session", "name", false));
+    }
+
+    /**
+     * Test for <code>%</code> and <code>_</code> wildcards, the other characters of a pattern are matched literally.
+     */
+    @Test
+    public void testWildcards() {
+        session(1, "Sprint 12 review", 1);
+        session(2, "Sprint 3 review", 2);
+        session(3, "Sprint review", 3);
+        session(4, "Sprint (1) review", 4);
+
+        assertEquals(ids(1, 2, 3, 4), index.search(author, "sprint%review", "created", true));
+        assertEquals(ids(2), index.search(author, "sprint _ review", "created", true));
+        assertEquals(ids(1), index.search(author, "sprint __ review", "created", true));
+        assertEquals(ids(4), index.search(author, "(1)", "created", true));
+        assertEquals(ids(3), index.search(author, "t r", "created", true));
+        assertEquals(ids(1, 2, 3, 4), index.search(author, "%", "created", true));
+    }
+
+    /**
+     * Test for sessions added and removed after an index is loaded.
+     */
+    @Test
+    public void testChanges() {
+        session(1, "First", 1);
+        assertEquals(ids(1), index.search(author, "first", "name", true));
+
+        index.add(session(2, "First again", 2));
+        index.remove(rows.get(0));
+        assertEquals(ids(2), index.search(author, "first", "name", true));
+        assertEquals(1, loads);
+    }
+
+    /**
+     * Test for sessions added and removed while an index is being loaded, they aren't lost or brought back by rows
+     * read before the changes.
+     */
+    @Test
+    public void testChangesWhileLoading() {
+        final Session removed = session(1, "Removed while loading", 1);
+        session(2, "Kept", 2);
+        whileLoading = new Runnable() {
+
+            @Override
+            public void run() {
+                Session added = new Session();
+                added.setId(3L);
+                added.setName("Added while loading");
+                added.setCreated(new Date(3));
+                added.setAuthor(author);
+                index.add(added);
+                index.remove(removed);
+            }
+
+        };
+
+        assertEquals(ids(3), index.search(author, "while loading", "name", true));
+        assertEquals(ids(2), index.search(author, "kept", "name", true));
+        assertEquals(1, loads);
+    }
+
+    /**
+     * Test for an unsupported order by criterion.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedOrdering() {
+        index.search(author, "any", "description", true);
+    }
+
+    private Session session(long id, String name, long created) {
+        Session session = new Session();
+        session.setId(id);
+        session.setName(name);
+        session.setCreated(new Date(created));
+        session.setAuthor(author);
+        rows.add(session);
+        return session;
+    }
+
+    private static List<Long> ids(long... ids) {
+        List<Long> list = Lists.newArrayList();
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+}
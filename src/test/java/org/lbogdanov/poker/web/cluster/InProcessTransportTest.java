@@ -0,0 +1,242 @@
+package org.lbogdanov.poker.web.cluster;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.BroadcasterFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lbogdanov.poker.core.ClusterEvents;
+import org.lbogdanov.poker.core.User;
+import org.lbogdanov.poker.web.util.ChatMessage;
+import org.lbogdanov.poker.web.util.MessageBroadcaster;
+import org.lbogdanov.poker.web.util.MessageSerializer;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+
+/**
+ * Tests for {@link InProcessTransport} class, including delivery of messages between two
+ * {@link MessageBroadcaster} nodes.
+ *
+ * @author Leonid Bogdanov
+ *
+ */
+public class InProcessTransportTest {
+
+    /**
+     * Replaces the default Atmosphere <code>BroadcasterFactory</code>, which only exists in a running application.
+     */
+    private abstract static class DefaultFactory extends BroadcasterFactory {
+
+        static void set(BroadcasterFactory newFactory) {
+            factory = newFactory;
+        }
+
+    }
+
+    /**
+     * Records every received message as a <code>channel|origin|message</code> string.
+     */
+    private static final class Recorder implements ClusterTransport.Receiver {
+
+        final List<String> received = Lists.newArrayList();
+
+        @Override
+        public void receive(String channel, String origin, String message) {
+            received.add(channel + "|" + origin + "|" + message);
+        }
+
+    }
+
+    private Broadcaster broadcaster;
+    private AtmosphereResource resource;
+
+    /**
+     * Sets up test environment, is called before a test is executed. Both nodes share a JVM, so they share
+     * a <code>Broadcaster</code> of a channel too, a participant is connected to it. Other tests use other channels,
+     * as their nodes may still flush messages.
+     */
+    @Before
+    public void setup() {
+        resource = mock(AtmosphereResource.class);
+        when(resource.uuid()).thenReturn("resource");
+        broadcaster = mock(Broadcaster.class);
+        when(broadcaster.getAtmosphereResources()).thenReturn(Collections.singletonList(resource));
+        when(broadcaster.broadcast(anyString(), any(AtmosphereResource.class))).thenAnswer(new Answer<Future<?>>() {
+
+            @Override
+            public Future<?> answer(InvocationOnMock invocation) {
+                return Futures.immediateFuture(invocation.getArguments()[0]);
+            }
+
+        });
+        BroadcasterFactory factory = mock(BroadcasterFactory.class);
+        when(factory.lookup("hop")).thenReturn(broadcaster);
+        DefaultFactory.set(factory);
+    }
+
+    /**
+     * Cleans up test environment, is called after a test is executed.
+     */
+    @After
+    public void tearDown() {
+        DefaultFactory.set(null);
+    }
+
+    /**
+     * Test for {@link InProcessTransport#send(String, String, String)} between peers.
+     */
+    @Test
+    public void testSend() {
+        InProcessTransport node1 = new InProcessTransport();
+        InProcessTransport node2 = node1.newPeer();
+        InProcessTransport node3 = node1.newPeer();
+        InProcessTransport standalone = new InProcessTransport();
+        Recorder receiver1 = new Recorder();
+        Recorder receiver2 = new Recorder();
+        Recorder receiver3 = new Recorder();
+        Recorder standaloneReceiver = new Recorder();
+        node1.start(receiver1);
+        node2.start(receiver2);
+        node3.start(receiver3);
+        standalone.start(standaloneReceiver);
+        node1.send("code", "origin", "[1,2,\"Hi\"]");
+        node3.stop();
+        node2.send("code", null, "[3,2]");
+
+        assertEquals(Lists.newArrayList("code|null|[3,2]"), receiver1.received);
+        assertEquals(Lists.newArrayList("code|origin|[1,2,\"Hi\"]"), receiver2.received);
+        assertEquals(Lists.newArrayList("code|origin|[1,2,\"Hi\"]"), receiver3.received);
+        assertTrue(standaloneReceiver.received.isEmpty());
+    }
+
+    /**
+     * Test for delivery of a published message to another {@link MessageBroadcaster} node, the receiving node
+     * delivers the message to its own participants and doesn't forward it any further.
+     */
+    @Test
+    public void testBroadcastersOneHop() {
+        InProcessTransport transport1 = new InProcessTransport();
+        InProcessTransport transport2 = transport1.newPeer();
+        InProcessTransport observer = transport1.newPeer();
+        Recorder observed = new Recorder();
+        observer.start(observed);
+        MessageBroadcaster node1 = newBroadcaster(transport1);
+        MessageBroadcaster node2 = newBroadcaster(transport2);
+        User author = new User();
+        author.setId(42L);
+        long seq = node1.publish("hop", new ChatMessage("session", author, "Hi"));
+
+        assertEquals(1, seq);
+        assertEquals(Lists.newArrayList("hop|session|[1,42,\"Hi\"]"), observed.received); // not again from node2
+        assertEquals(1L, node2.getPosition("hop").get("last"));
+        assertTrue(node2.toResyncScript("hop", (String) node2.getPosition("hop").get("epoch"), 0, null)
+                        .contains("[1,42,\"Hi\"]"));
+        assertEquals(1L, node1.getPosition("hop").get("last"));
+        String epoch1 = (String) node1.getPosition("hop").get("epoch");
+        String epoch2 = (String) node2.getPosition("hop").get("epoch");
+        assertFalse(epoch1.equals(epoch2));
+
+        // each node delivers the message to its participants once, numbered by its own history
+        ArgumentCaptor<String> responses = ArgumentCaptor.forClass(String.class);
+        verify(broadcaster, timeout(5000).times(2)).broadcast(responses.capture(), eq(resource));
+        List<String> delivered = Lists.newArrayList();
+        for (String response : responses.getAllValues()) {
+            assertTrue(response.contains("[1,42,\"Hi\"]"));
+            delivered.add(response.contains(epoch1) ? "node1" : response.contains(epoch2) ? "node2" : response);
+        }
+        Collections.sort(delivered);
+        assertEquals(Lists.newArrayList("node1", "node2"), delivered);
+    }
+
+    /**
+     * Test for {@link ClusterEvents} carried between {@link MessageBroadcaster} nodes, events never get into
+     * the message history of a channel.
+     */
+    @Test
+    public void testBroadcastersEvents() {
+        InProcessTransport transport1 = new InProcessTransport();
+        MessageBroadcaster node1 = newBroadcaster(transport1);
+        MessageBroadcaster node2 = newBroadcaster(transport1.newPeer());
+        final List<String> events = Lists.newArrayList();
+        node2.subscribe("topic", new ClusterEvents.Listener() {
+
+            @Override
+            public void onEvent(String topic, String payload) {
+                events.add(topic + "|" + payload);
+            }
+
+        });
+        node1.subscribe("topic", new ClusterEvents.Listener() {
+
+            @Override
+            public void onEvent(String topic, String payload) {
+                events.add("self|" + payload);
+            }
+
+        });
+        node1.publish("topic", "payload");
+        node1.publish("other", "payload");
+
+        assertEquals(Lists.newArrayList("topic|payload"), events);
+        assertEquals(0L, node2.getPosition("!topic").get("last"));
+    }
+
+    /**
+     * Test for a malformed message received from another node, it isn't delivered to participants.
+     */
+    @Test
+    public void testMalformedMessage() {
+        InProcessTransport transport1 = new InProcessTransport();
+        MessageBroadcaster node = newBroadcaster(transport1);
+        InProcessTransport peer = transport1.newPeer();
+        peer.start(new Recorder());
+        peer.send("code", null, "alert(1)");
+        peer.send("code", null, "[1,2,\"Hi\"]);alert(1);(");
+
+        String script = node.toResyncScript("code", (String) node.getPosition("code").get("epoch"), 0, null);
+        assertEquals(1L, node.getPosition("code").get("last"));
+        assertTrue(script.contains("[1,2,\"Hi\"]"));
+        assertFalse(script.contains("alert"));
+    }
+
+    private static MessageBroadcaster newBroadcaster(final ClusterTransport transport) {
+        final ObjectMapper mapper = new ObjectMapper().registerModule(new SimpleModule()
+                .addSerializer(MessageSerializer.get()));
+        return Guice.createInjector(new AbstractModule() {
+
+            @Override
+            protected void configure() {
+                bind(ObjectMapper.class).toInstance(mapper);
+                bind(ClusterTransport.class).toInstance(transport);
+            }
+
+        }).getInstance(MessageBroadcaster.class);
+    }
+
+}
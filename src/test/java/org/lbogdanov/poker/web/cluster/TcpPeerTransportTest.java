@@ -0,0 +1,179 @@
+package org.lbogdanov.poker.web.cluster;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link TcpPeerTransport} class, transports exchange frames over a loopback interface.
+ *
+ * @author Leonid Bogdanov
+ *
+ */
+public class TcpPeerTransportTest {
+
+    private static final String LOOPBACK = "127.0.0.1";
+    private static final String SECRET = "secret";
+
+    /**
+     * Queues every received message as a <code>channel|origin|message</code> string.
+     */
+    private static final class Queue implements ClusterTransport.Receiver {
+
+        final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+
+        @Override
+        public void receive(String channel, String origin, String message) {
+            received.add(channel + "|" + origin + "|" + message);
+        }
+
+        String poll() throws InterruptedException {
+            return received.poll(5, TimeUnit.SECONDS);
+        }
+
+    }
+
+    private final List<ClusterTransport> transports = Lists.newArrayList();
+    private int port1;
+    private int port2;
+    private Queue receiver2;
+
+    /**
+     * Sets up test environment, is called before a test is executed. The second transport listens for peers.
+     */
+    @Before
+    public void setup() throws IOException {
+        port1 = freePort();
+        port2 = freePort();
+        receiver2 = new Queue();
+        start(new TcpPeerTransport(LOOPBACK, port2, LOOPBACK + ":" + port1, SECRET), receiver2);
+    }
+
+    /**
+     * Cleans up test environment, is called after a test is executed.
+     */
+    @After
+    public void tearDown() {
+        for (ClusterTransport transport : transports) {
+            transport.stop();
+        }
+    }
+
+    /**
+     * Test for {@link TcpPeerTransport#send(String, String, String)} between two transports, <code>null</code>s
+     * and non ASCII text are kept.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        Queue receiver1 = new Queue();
+        TcpPeerTransport transport1 = new TcpPeerTransport(LOOPBACK, port1, LOOPBACK + ":" + port2, SECRET);
+        start(transport1, receiver1);
+        transport1.send("code", "origin", "[1,2,\"\u041f\u0440\u0438\u0432\u0435\u0442\"]");
+        transport1.send("code", null, "[3,2]");
+
+        assertEquals("code|origin|[1,2,\"\u041f\u0440\u0438\u0432\u0435\u0442\"]", receiver2.poll());
+        assertEquals("code|null|[3,2]", receiver2.poll());
+        assertNull(receiver1.received.poll());
+    }
+
+    /**
+     * Test for frames signed with a wrong secret, they aren't delivered and the connection is closed.
+     */
+    @Test
+    public void testWrongSecret() throws Exception {
+        TcpPeerTransport transport1 = new TcpPeerTransport(LOOPBACK, port1, LOOPBACK + ":" + port2, "wrong");
+        start(transport1, new Queue());
+        transport1.send("code", null, "[1,2,\"Hi\"]");
+
+        Socket socket = connect();
+        socket.getOutputStream().write(frame("wrong", "code", null, "[1,2,\"Hi\"]"));
+        assertEquals(-1, socket.getInputStream().read());
+        socket.close();
+
+        Socket signed = connect();
+        signed.getOutputStream().write(frame(SECRET, "code", null, "[3,2]"));
+        assertEquals("code|null|[3,2]", receiver2.poll()); // frames with the wrong secret were not received
+        signed.close();
+        assertNull(receiver2.received.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Test for a frame longer than the limit, the connection is closed before the frame is read.
+     */
+    @Test
+    public void testOversizeFrame() throws Exception {
+        Socket socket = connect();
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeInt(Integer.MAX_VALUE);
+        out.write(new byte[16]);
+        out.flush();
+
+        assertEquals(-1, socket.getInputStream().read());
+        socket.close();
+        assertNull(receiver2.received.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private void start(ClusterTransport transport, ClusterTransport.Receiver receiver) {
+        transport.start(receiver);
+        transports.add(transport);
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getByName(LOOPBACK), port2);
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(5));
+        return socket;
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static byte[] frame(String secret, String channel, String origin, String message) throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        for (String str : new String[] {channel, origin, message}) {
+            if (str == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = str.getBytes(Charsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(Charsets.UTF_8), "HmacSHA256"));
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        out = new DataOutputStream(frame);
+        out.writeInt(body.size());
+        body.writeTo(out);
+        out.write(mac.doFinal(body.toByteArray()));
+        return frame.toByteArray();
+    }
+
+}
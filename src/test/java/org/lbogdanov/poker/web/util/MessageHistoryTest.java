@@ -0,0 +1,80 @@
+package org.lbogdanov.poker.web.util;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link MessageHistory} class.
+ *
+ * @author Leonid Bogdanov
+ *
+ */
+public class MessageHistoryTest {
+
+    /**
+     * Test for {@link MessageHistory#after(long)} before the history is full.
+     */
+    @Test
+    public void testAfter() {
+        MessageHistory history = new MessageHistory(4);
+        assertEquals(0, history.getLastSeq());
+        assertTrue(history.after(0).isEmpty());
+        assertEquals(1, history.append("a", "m1"));
+        assertEquals(2, history.append(null, "m2"));
+        assertEquals(3, history.append("b", "m3"));
+
+        assertEquals(Lists.newArrayList("m1", "m2", "m3"), messages(history.after(0)));
+        assertEquals(Lists.newArrayList("m3"), messages(history.after(2)));
+        assertTrue(history.after(3).isEmpty());
+        assertTrue(history.after(10).isEmpty());
+        assertEquals("b", history.after(2).get(0).origin);
+        assertEquals(3, history.getLastSeq());
+    }
+
+    /**
+     * Test for {@link MessageHistory#after(long)} once the oldest messages are overwritten.
+     */
+    @Test
+    public void testWraparound() {
+        MessageHistory history = new MessageHistory(3);
+        for (int i = 1; i <= 8; i++) {
+            history.append(null, "m" + i);
+        }
+        List<MessageHistory.Entry> kept = history.after(0);
+
+        assertEquals(Lists.newArrayList("m6", "m7", "m8"), messages(kept));
+        assertEquals(6, kept.get(0).seq);
+        assertEquals(8, kept.get(2).seq);
+        assertEquals(Lists.newArrayList("m6", "m7", "m8"), messages(history.after(4))); // m5 is lost
+        assertEquals(Lists.newArrayList("m7", "m8"), messages(history.after(6)));
+        assertEquals(8, history.getLastSeq());
+    }
+
+    /**
+     * Test for {@link MessageHistory#getEpoch()} of different histories.
+     */
+    @Test
+    public void testEpoch() {
+        MessageHistory history = new MessageHistory(1);
+
+        assertEquals(history.getEpoch(), history.getEpoch());
+        assertFalse(history.getEpoch().equals(new MessageHistory(1).getEpoch()));
+    }
+
+    private static List<String> messages(List<MessageHistory.Entry> entries) {
+        List<String> messages = Lists.newArrayList();
+        for (MessageHistory.Entry entry : entries) {
+            messages.add(entry.message);
+        }
+        return messages;
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.lbogdanov.poker.web.util;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.lbogdanov.poker.core.User;
+import org.lbogdanov.poker.web.cluster.ClusterTransport;
+import org.lbogdanov.poker.web.cluster.InProcessTransport;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+
+/**
+ * Tests for {@link ScriptCharacterEscapes} class.
+ *
+ * @author Leonid Bogdanov
+ *
+ */
+public class ScriptCharacterEscapesTest {
+
+    private static final String PAYLOAD = "</script><script>alert(1)</script>&\u2028";
+
+    /**
+     * Test for a names table with a <code>&lt;/script&gt;</code> payload, it can't close an inline script and
+     * is decoded back unchanged.
+     */
+    @Test
+    public void testNames() throws Exception {
+        ObjectMapper mapper = newMapper();
+        Map<Long, String> names = ImmutableMap.of(42L, PAYLOAD);
+        String json = mapper.writeValueAsString(names);
+
+        assertScriptSafe(json);
+        assertEquals(PAYLOAD, mapper.readTree(json).get("42").asText());
+    }
+
+    /**
+     * Test for {@link MessageBroadcaster#toScript(Iterable)} with a <code>&lt;/script&gt;</code> chat message.
+     */
+    @Test
+    public void testChatHistory() throws Exception {
+        final ObjectMapper mapper = newMapper();
+        MessageBroadcaster broadcaster = Guice.createInjector(new AbstractModule() {
+
+            @Override
+            protected void configure() {
+                bind(ObjectMapper.class).toInstance(mapper);
+                bind(ClusterTransport.class).toInstance(new InProcessTransport());
+            }
+
+        }).getInstance(MessageBroadcaster.class);
+        User author = new User();
+        author.setId(42L);
+        String script = broadcaster.toScript(Lists.newArrayList(new ChatMessage(null, author, PAYLOAD)));
+
+        assertScriptSafe(script.substring("Poker.dispatch(".length(), script.length() - ");".length()));
+        assertEquals(PAYLOAD, mapper.readTree(script.substring("Poker.dispatch(".length(),
+                                                               script.length() - ");".length()))
+                                    .get(0).get(2).asText());
+    }
+
+    private static void assertScriptSafe(String json) {
+        for (String unsafe : new String[] {"<", ">", "&", "/", "\u2028"}) {
+            assertFalse(json + " contains " + unsafe, json.contains(unsafe));
+        }
+    }
+
+    private static ObjectMapper newMapper() {
+        ObjectMapper mapper = new ObjectMapper().registerModule(new SimpleModule()
+                .addSerializer(MessageSerializer.get()));
+        mapper.getFactory().setCharacterEscapes(ScriptCharacterEscapes.get());
+        return mapper;
+    }
+
+}